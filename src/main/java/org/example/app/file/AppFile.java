@@ -2,7 +2,6 @@ package org.example.app.file;
 
 import org.example.gui.canvas.Canvas;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -17,6 +16,7 @@ public class AppFile {
     private File file;
     private Date creationDate;
     private Date lastModifiedDate;
+    private ImageLoader loader; // decodes the last opened file
 
     public AppFile(Canvas canvas) {
         this.canvas = canvas;
@@ -31,19 +31,24 @@ public class AppFile {
         return instance;
     }
 
+    // Only the header is read here, the pixels are decoded in the background (see ImageLoader)
     public void open(File imageFile){
         try{
-            BufferedImage image = ImageIO.read(imageFile);
-            canvas.setImage(image);
+            ImageLoader opened = ImageLoader.open(canvas, imageFile);
+            if (loader != null) loader.cancel();
+            loader = opened;
+            loader.start();
             this.file = imageFile;
             this.creationDate = new Date(imageFile.lastModified());
             this.lastModifiedDate = new Date();
         } catch (IOException e){
             e.printStackTrace();
+            JOptionPane.showMessageDialog(null, "Failed to open file.");
         }
     }
 
     public void save() {
+        if (refuseWhileLoading()) return;
         if (this.file != null) {
             saveToFile(this.file);
             JOptionPane.showMessageDialog(null, "File is successfully saved!");
@@ -53,6 +58,7 @@ public class AppFile {
     }
 
     public void saveAs() {
+        if (refuseWhileLoading()) return;
         JFileChooser fileChooser = new JFileChooser();
         int option = fileChooser.showSaveDialog(null);
         if (option == JFileChooser.APPROVE_OPTION) {
@@ -65,12 +71,20 @@ public class AppFile {
             this.creationDate = new Date();
         }
     }
+
+    // The opened file is still being read by the loader and most of the canvas is not decoded yet
+    private boolean refuseWhileLoading() {
+        if (!canvas.isLoading()) return false;
+        JOptionPane.showMessageDialog(null, "The image is still loading, try saving again when it is done.");
+        return true;
+    }
+
     private void saveToFile(File targetFile) {
         try {
-            BufferedImage image = canvas.getImage();
-            ImageIO.write(image, "png", targetFile);
+            BufferedImage image = canvas.snapshot();
+            PngEncoder.write(image, targetFile, PngEncoder.Level.BEST);
             this.lastModifiedDate = new Date();
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null, "Failed to save file.");
         }
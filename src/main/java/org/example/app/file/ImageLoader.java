@@ -0,0 +1,241 @@
+package org.example.app.file;
+
+import org.example.gui.canvas.Canvas;
+import org.example.gui.canvas.raster.CanvasRaster;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * ImageLoader opens an image file without decoding it on the EDT.
+ * Only the header is read up front, so the canvas gets its size right away. A subsampled preview is shown
+ * under the document and the full resolution pixels are decoded on a background thread, region by region,
+ * the regions in the viewport first.
+ *
+ * Tiled codecs read a source region cheaply, so those are split in small blocks. PNG and JPEG decode
+ * from the start of the file for every region, so they are read in as few bands as the heap allows.
+ */
+public final class ImageLoader {
+    private static final int PREVIEW_SIZE = 2048; // longest side of the preview
+    private static final int BLOCK_SIZE = CanvasRaster.TILE_SIZE * 8; // side of the regions read from tiled codecs
+    private static final long MIN_BAND_PIXELS = 16L * 1024 * 1024;
+
+    private final Canvas canvas;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private BufferedImage image; // the document the decoded regions are written to
+    private volatile boolean cancelled;
+
+    private ImageLoader(Canvas canvas, ImageInputStream input, ImageReader reader) throws IOException {
+        this.canvas = canvas;
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+
+        if (width > CanvasRaster.MAX_DIMENSION || height > CanvasRaster.MAX_DIMENSION) {
+            throw new IOException("Image is too large: " + width + "x" + height);
+        }
+    }
+
+    // Reads the header of the file, throws if no ImageIO reader understands it
+    public static ImageLoader open(Canvas canvas, File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) throw new IOException("Cannot read " + file);
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + file.getName());
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(input, false, true); // regions are read in any order, metadata is not needed
+        try {
+            return new ImageLoader(canvas, input, reader);
+        } catch (IOException | RuntimeException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+    // Show the empty document in the canvas and start decoding, called on the EDT
+    public void start() {
+        image = CanvasRaster.create(width, height, 0);
+        canvas.startLoading(image);
+
+        Thread thread = new Thread(this::run, "kraska-image-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stop decoding, e.g. when another file is opened. Called on the EDT
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void run() {
+        boolean failed = false;
+        try {
+            List<Rectangle> regions = split();
+            if (regions.size() > 1) showPreview();
+
+            while (!regions.isEmpty() && !cancelled) {
+                decode(regions.remove(next(regions)));
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            failed = true;
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            reader.dispose();
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // What was decoded stays on the canvas, painting is enabled again either way
+        boolean showError = failed;
+        SwingUtilities.invokeLater(() -> {
+            if (cancelled) return;
+            canvas.finishLoading();
+            if (showError) JOptionPane.showMessageDialog(null, "Failed to open file.");
+        });
+    }
+
+    // --- REGIONS ---
+
+    private List<Rectangle> split() throws IOException {
+        List<Rectangle> regions = new ArrayList<>();
+
+        if (reader.isImageTiled(0) || reader.isRandomAccessEasy(0)) {
+            for (int y = 0; y < height; y += BLOCK_SIZE) {
+                for (int x = 0; x < width; x += BLOCK_SIZE) {
+                    regions.add(new Rectangle(x, y, Math.min(BLOCK_SIZE, width - x), Math.min(BLOCK_SIZE, height - y)));
+                }
+            }
+            return regions;
+        }
+
+        // A band and its pixels take about an eighth of the heap, rows stay aligned to the canvas tiles
+        long bandPixels = Math.max(MIN_BAND_PIXELS, Runtime.getRuntime().maxMemory() / 96);
+        int tile = CanvasRaster.TILE_SIZE;
+        int bandRows = (int) Math.min(height, Math.max(tile, bandPixels / width / tile * tile));
+        for (int y = 0; y < height; y += bandRows) {
+            regions.add(new Rectangle(0, y, width, Math.min(bandRows, height - y)));
+        }
+        return regions;
+    }
+
+    // The visible region closest to the centre of the viewport, the first one in file order if none is visible
+    private int next(List<Rectangle> regions) throws InterruptedException {
+        Rectangle view = getViewport();
+        if (view == null || view.isEmpty()) return 0;
+
+        double centerX = view.getCenterX();
+        double centerY = view.getCenterY();
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < regions.size(); i++) {
+            Rectangle region = regions.get(i);
+            if (!region.intersects(view)) continue;
+
+            double dx = region.getCenterX() - centerX;
+            double dy = region.getCenterY() - centerY;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private Rectangle getViewport() throws InterruptedException {
+        Rectangle[] result = new Rectangle[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> result[0] = canvas.getVisibleDocumentRect());
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return result[0];
+    }
+
+    // --- DECODING ---
+
+    private void showPreview() throws IOException {
+        int subsampling = (Math.max(width, height) + PREVIEW_SIZE - 1) / PREVIEW_SIZE;
+        if (subsampling < 2) return;
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage preview = reader.read(0, param);
+
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) canvas.setPreview(preview);
+        });
+    }
+
+    // Decode a region and write it to the document on the stroke thread, uniform tiles are kept compact
+    private void decode(Rectangle region) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        int[] pixels = toArgb(reader.read(0, param));
+
+        int[] indices = CanvasRaster.getTilesIn(image, region);
+        int[][] tiles = new int[indices.length][];
+        for (int i = 0; i < indices.length; i++) {
+            Rectangle bounds = CanvasRaster.getTileBounds(image, indices[i]);
+            int[] tile = new int[bounds.width * bounds.height];
+            for (int row = 0; row < bounds.height; row++) {
+                int offset = (bounds.y - region.y + row) * region.width + bounds.x - region.x;
+                System.arraycopy(pixels, offset, tile, row * bounds.width, bounds.width);
+            }
+            tiles[i] = isUniform(tile) ? new int[] {tile[0]} : tile;
+        }
+
+        BufferedImage target = image;
+        canvas.submitStroke(() -> {
+            for (int i = 0; i < indices.length; i++) {
+                CanvasRaster.writeTile(target, indices[i], tiles[i], tiles[i].length);
+            }
+            if (!cancelled) canvas.markDirty(region);
+        });
+    }
+
+    // Codecs are fastest in their own pixel layout, Java2D converts the result in one blit
+    private static int[] toArgb(BufferedImage decoded) {
+        BufferedImage argb = new BufferedImage(decoded.getWidth(), decoded.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = argb.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(decoded, 0, 0, null);
+        g2d.dispose();
+        return ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+    }
+
+    private static boolean isUniform(int[] tile) {
+        int color = tile[0];
+        for (int pixel : tile) {
+            if (pixel != color) return false;
+        }
+        return true;
+    }
+}
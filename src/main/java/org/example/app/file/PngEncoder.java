@@ -0,0 +1,311 @@
+package org.example.app.file;
+
+import org.example.gui.canvas.raster.CanvasRaster;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * PngEncoder writes PNG files on all cores, the way pigz compresses: the image is split into bands of rows,
+ * each band is filtered and deflated on its own thread, primed with the last 32 KB of the band above as the
+ * dictionary, and the pieces (flushed to a byte boundary) are joined into one zlib stream.
+ * Every row gets the filter that gives the smallest sum of absolute differences, opaque images are written as RGB.
+ * FAST is meant for autosaves, BEST for saves made by the user.
+ */
+public final class PngEncoder {
+    public enum Level {
+        FAST(Deflater.BEST_SPEED, 0x01, 3), // None, Sub and Up
+        BEST(Deflater.DEFAULT_COMPRESSION, 0x9c, 5); // all five filters, level 9 is much slower for a few percent
+
+        private final int deflateLevel;
+        private final int zlibFlags; // second zlib header byte, tells the level used
+        private final int filters;
+
+        Level(int deflateLevel, int zlibFlags, int filters) {
+            this.deflateLevel = deflateLevel;
+            this.zlibFlags = zlibFlags;
+            this.filters = filters;
+        }
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int BAND_BYTES = 1 << 20; // filtered bytes deflated by one job
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final int OUTPUT_CHUNK = 64 * 1024;
+
+    private PngEncoder() {}
+
+    public static void write(BufferedImage image, File file, Level level) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), OUTPUT_CHUNK)) {
+            write(image, out, level);
+        }
+    }
+
+    public static void write(BufferedImage image, OutputStream out, Level level) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int channels = isOpaque(image) ? 3 : 4;
+        int stride = width * channels + 1; // filter type byte and the row
+
+        int bandRows = Math.max(1, BAND_BYTES / stride);
+        int dictionaryRows = (DICTIONARY_BYTES + stride - 1) / stride;
+        int bands = (height + bandRows - 1) / bandRows;
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8); // bit depth
+        ihdr.writeByte(channels == 4 ? 6 : 2); // RGBA or RGB
+        ihdr.writeByte(0); // deflate
+        ihdr.writeByte(0); // adaptive filtering
+        ihdr.writeByte(0); // no interlace
+        writeChunk(data, "IHDR", header.toByteArray(), 0, header.size());
+
+        // Bands are encoded a few at a time ahead of the writer, so memory stays bounded
+        int window = ForkJoinPool.getCommonPoolParallelism() * 2 + 1;
+        Deque<CompletableFuture<Band>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        long adler = 1;
+
+        for (int written = 0; written < bands; written++) {
+            while (submitted < bands && pending.size() < window) {
+                int index = submitted++;
+                pending.add(CompletableFuture.supplyAsync(() ->
+                        encodeBand(image, index, bandRows, dictionaryRows, channels, level, index == bands - 1)));
+            }
+
+            Band band;
+            try {
+                band = pending.poll().join();
+            } catch (CompletionException e) {
+                throw new IOException("PNG encoding failed", e.getCause());
+            }
+
+            adler = combineAdler(adler, band.adler, band.length);
+            ByteArrayOutputStream idat = new ByteArrayOutputStream(band.compressed.length + 6);
+            if (written == 0) {
+                idat.write(0x78); // zlib header: deflate, 32 KB window
+                idat.write(level.zlibFlags);
+            }
+            idat.write(band.compressed, 0, band.compressed.length);
+            if (written == bands - 1) {
+                new DataOutputStream(idat).writeInt((int) adler);
+            }
+            writeChunk(data, "IDAT", idat.toByteArray(), 0, idat.size());
+        }
+
+        writeChunk(data, "IEND", new byte[0], 0, 0);
+        data.flush();
+    }
+
+    // --- BANDS ---
+
+    private record Band(byte[] compressed, long adler, long length) {}
+
+    private static Band encodeBand(BufferedImage image, int index, int bandRows, int dictionaryRows, int channels, Level level, boolean last) {
+        int width = image.getWidth();
+        int stride = width * channels + 1;
+        int top = index * bandRows;
+        int bottom = Math.min(image.getHeight(), top + bandRows);
+
+        // The end of the band above is filtered again (same bytes as its own job) to prime the dictionary
+        int first = Math.max(0, top - dictionaryRows);
+        int read = Math.max(0, first - 1);
+        int[] pixels = new int[(bottom - read) * width];
+        CanvasRaster.readRows(image, read, bottom - read, pixels);
+
+        byte[] filtered = new byte[(bottom - first) * stride];
+        byte[] previous = new byte[stride - 1];
+        byte[] current = new byte[stride - 1];
+        byte[] scratch = new byte[stride - 1];
+        if (first > 0) toBytes(pixels, 0, width, channels, previous);
+
+        for (int y = first; y < bottom; y++) {
+            toBytes(pixels, (y - read) * width, width, channels, current);
+            filterRow(current, previous, channels, level.filters, filtered, (y - first) * stride, scratch);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int start = (top - first) * stride;
+        int length = filtered.length - start;
+
+        Deflater deflater = new Deflater(level.deflateLevel, true);
+        try {
+            int dictionary = Math.min(DICTIONARY_BYTES, start);
+            if (dictionary > 0) deflater.setDictionary(filtered, start - dictionary, dictionary);
+            deflater.setInput(filtered, start, length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[OUTPUT_CHUNK];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A sync flush ends the piece on a byte boundary, so the next one can follow it directly
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+
+            Adler32 adler = new Adler32();
+            adler.update(filtered, start, length);
+            return new Band(out.toByteArray(), adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void toBytes(int[] pixels, int offset, int width, int channels, byte[] row) {
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int argb = pixels[offset + x];
+            row[i++] = (byte) (argb >> 16);
+            row[i++] = (byte) (argb >> 8);
+            row[i++] = (byte) argb;
+            if (channels == 4) row[i++] = (byte) (argb >>> 24);
+        }
+    }
+
+    // --- FILTERING ---
+
+    // Writes the filter type and the filtered row at out[offset], picking the filter with the smallest output.
+    // Each candidate is written into place and the smallest one so far is kept in the scratch row
+    private static void filterRow(byte[] row, byte[] prior, int bpp, int filters, byte[] out, int offset, byte[] scratch) {
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < filters; type++) {
+            long sum = applyFilter(type, row, prior, bpp, out, offset + 1);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+                if (type < filters - 1) System.arraycopy(out, offset + 1, scratch, 0, row.length);
+            }
+        }
+
+        out[offset] = (byte) best;
+        if (best != filters - 1) System.arraycopy(scratch, 0, out, offset + 1, row.length);
+    }
+
+    // Filters the row into out[offset] and returns the sum of the absolute values of the filtered bytes
+    private static long applyFilter(int type, byte[] row, byte[] prior, int bpp, byte[] out, int offset) {
+        int length = row.length;
+        long sum = 0;
+        switch (type) {
+            case 0 -> {
+                for (int i = 0; i < length; i++) {
+                    byte value = row[i];
+                    out[offset + i] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            case 1 -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] : 0;
+                    byte value = (byte) (row[i] - a);
+                    out[offset + i] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) {
+                    byte value = (byte) (row[i] - prior[i]);
+                    out[offset + i] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    byte value = (byte) (row[i] - ((a + (prior[i] & 0xff)) >> 1));
+                    out[offset + i] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            default -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    int c = i >= bpp ? prior[i - bpp] & 0xff : 0;
+                    byte value = (byte) (row[i] - paeth(a, prior[i] & 0xff, c));
+                    out[offset + i] = value;
+                    sum += Math.abs(value);
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    // --- HELPERS ---
+
+    private static boolean isOpaque(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bandRows = CanvasRaster.TILE_SIZE;
+
+        return IntStream.range(0, (height + bandRows - 1) / bandRows).parallel().allMatch(band -> {
+            int top = band * bandRows;
+            int rows = Math.min(bandRows, height - top);
+            int[] pixels = new int[rows * width];
+            CanvasRaster.readRows(image, top, rows, pixels);
+            for (int pixel : pixels) {
+                if (pixel >>> 24 != 255) return false;
+            }
+            return true;
+        });
+    }
+
+    // Adler-32 of two pieces joined together, from the checksums of each piece (as zlib's adler32_combine)
+    private static long combineAdler(long first, long second, long secondLength) {
+        final long base = 65521;
+        long remainder = secondLength % base;
+        long sum1 = first & 0xffff;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (second & 0xffff) + base - 1;
+        sum2 += ((first >> 16) & 0xffff) + ((second >> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base * 2) sum2 -= base * 2;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
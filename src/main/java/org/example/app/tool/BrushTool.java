@@ -4,6 +4,8 @@ import org.example.app.Util;
 import org.example.app.color.ColorManager;
 import org.example.gui.canvas.Canvas;
 import org.example.gui.canvas.CanvasPainter;
+import org.example.gui.canvas.raster.DabBatch;
+import org.example.gui.canvas.raster.DabCompositor;
 
 import org.example.gui.screen.component.ToolOptionsPanel;
 
@@ -14,13 +16,13 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.VolatileImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Objects;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class BrushTool extends AbstractTool implements CanvasPainter, ToolOptionsProvider {
     public enum BrushShape {
@@ -37,6 +39,7 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
     private final ColorManager colorManager;
     private Color color;
     private Point lastPoint;
+    private float strokeOpacity; // opacity the temp buffer is shown and applied with
 
     private BrushShape brushShape = BrushShape.BASIC;
     private int size;
@@ -45,6 +48,50 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
     private boolean antialiased;
 
     private BrushResourceProvider brushResourceProvider = new BrushResourceProvider();
+    private final SymmetryManager symmetry = SymmetryManager.getInstance();
+
+    // Dab spacing as a fraction of the size, divided by the hardness (except BASIC, a solid line whatever the hardness)
+    private static final float BASIC_SPACING = 0.05f;
+    private static final float DEFAULT_SPACING = 0.1f;
+    private static final float MARKER_SPACING = 0.05f;
+    private static final float CALLIGRAPHY_SPACING = 0.02f;
+    private static final float MIN_SPACING = 0.5f;
+
+    private final StrokeSampler sampler = new StrokeSampler();
+    private final StrokeSampler.DabConsumer dabConsumer = this::drawDab;
+
+    // State of the segment being sampled, used by drawDab. The dabs are collected in batch and drawn at once
+    private final DabBatch batch = new DabBatch();
+    private AffineTransform[] dabTransforms; // one per symmetric copy of a dab
+    private float dabRatio; // how many dabs of the old one pixel / hardness spacing a dab stands for
+
+    // PENCIL grain: one random source for every dab
+    private final SplittableRandom random = new SplittableRandom();
+
+    // Pre-rendered dabs, keyed by mask, size, color and angle step
+    private static final long STAMP_CACHE_BYTES = 32L * 1024 * 1024;
+    private final StampCache stampCache = new StampCache(STAMP_CACHE_BYTES); // only touched from the stroke thread
+    private volatile boolean stampsStale; // the colors changed, the stroke thread clears the cache before its next stamp
+    private final DabCompositor.StampSource stamps = this::getStamp;
+
+    // Mask ids for the stamp cache keys and dab batches
+    private static final int MASK_MARKER = 1;
+    private static final int MASK_BRISTLES = 2;
+    private static final int MASK_CHALK = 3;
+    private static final int MASK_WATERBRUSH = 4;
+    private static final int MASK_ROLLER = 5;
+    private static final int MASK_CALLIGRAPHY = 6;
+
+    // CALLIGRAPHY nib: a flat gradient bar at a fixed angle, its length is the size
+    private static final float CALLIGRAPHY_ANGLE = (float) Math.toRadians(-75);
+    private static final int CALLIGRAPHY_ALPHA_START = 220;
+    private static final int CALLIGRAPHY_ALPHA_END = 65;
+
+    // Stamp opacities
+    private static final float BRISTLES_OPACITY = 0.4f;
+    private static final float CHALK_OPACITY = 0.025f;
+    private static final float WATERBRUSH_OPACITY = 0.1f;
+    private static final float ROLLER_OPACITY = 0.1f;
 
     public BrushTool(Color defaultColor, int defaultSize) {
         super("Brush");
@@ -52,14 +99,20 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
         this.color = colorManager.getPrimary();
         this.size = defaultSize;
         this.antialiased = true;
+
+        // Tinted stamps of the old colors won't be used again. The listener runs on the EDT, so it only flags the cache
+        colorManager.addColorChangeListener((primary, secondary) -> stampsStale = true);
     }
 
     @Override
     public void onMousePress(Canvas canvas, MouseEvent e) {
         if (e.getButton() == MouseEvent.BUTTON1 || e.getButton() == MouseEvent.BUTTON3) {
             this.color = e.getButton() == MouseEvent.BUTTON1 ? colorManager.getPrimary() : colorManager.getSecondary();
+            sampler.reset();
 
-            canvas.setTempBufferAlpha(force);
+            // BASIC dabs are opaque and overlap, the alpha of the color goes to the whole stroke like it did for a line
+            strokeOpacity = brushShape == BrushShape.BASIC ? force * color.getAlpha() / 255f : force;
+            canvas.setTempBufferAlpha(strokeOpacity);
             canvas.clearTempBuffer();
 
             lastPoint = canvas.getUnzoomedPoint(e.getPoint());
@@ -79,12 +132,18 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
     @Override
     public void onMouseRelease(Canvas canvas, MouseEvent e) {
         if (e.getButton() == MouseEvent.BUTTON1 || e.getButton() == MouseEvent.BUTTON3) {
-            canvas.applyTempBuffer(force);
+            canvas.applyTempBuffer(strokeOpacity);
             lastPoint = null;
         }
     }
 
 
+    // Strokes only touch the temp buffer
+    @Override
+    public boolean rendersOffEdt() {
+        return true;
+    }
+
     public JPanel getToolOptionsPanel() {
         ToolOptionsPanel panel = new ToolOptionsPanel();
 
@@ -144,157 +203,117 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
         antialiasCheckbox.setSelected(antialiased);
         antialiasCheckbox.addItemListener(e -> {
             antialiased = antialiasCheckbox.isSelected();
+            stampsStale = true;
         });
 
         panel.addComponentGroup(new JComponent[]{brushTypeLabel, brushShapePanel});
         panel.addComponentGroup(new JComponent[]{sizeLabel, sizeSlider});
         panel.addComponentGroup(new JComponent[]{forceLabel, forceSlider});
         panel.addComponentGroup(new JComponent[]{hardnessLabel, hardnessSlider});
+        symmetry.addOptions(panel);
         panel.addComponent(antialiasCheckbox);
 
         return panel;
     }
 
+    // Every shape is sampled into dabs and blended by DabCompositor, circles take the color and stamps carry their own
     private void draw(Canvas canvas, Point from, Point to) {
-        if (brushShape == BrushShape.BASIC) {
-            drawDirectLine(canvas, from, to);
-        } else {
-            drawInterpolated(canvas, from, to);
-        }
-    }
+        Dimension canvasSize = canvas.getLogicalSize();
+        dabTransforms = symmetry.getTransforms(canvasSize.width / 2.0, canvasSize.height / 2.0);
 
-    private void drawDirectLine(Canvas canvas, Point from, Point to) {
-        Graphics2D g2d = canvas.getTempGraphics();
-
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                this.antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(size, BasicStroke.CAP_ROUND,
-                BasicStroke.JOIN_ROUND));
-
-        if (from.equals(to)) {
-            g2d.fillOval(from.x - size/2, from.y - size/2, size, size);
-        } else {
-            g2d.drawLine(from.x, from.y, to.x, to.y);
-        }
+        float spacing = getDabSpacing();
+        dabRatio = spacing * hardness;
+        batch.clear();
+        sampler.moveTo(to.x, to.y, spacing, dabConsumer);
 
-        g2d.dispose();
-        canvas.repaint();
+        int circleColor = color.getRGB() | 0xff000000; // circle dabs set their alpha through the dab opacity
+        Rectangle drawn = DabCompositor.drawBatch(canvas.getTempBuffer(), batch, circleColor, DabCompositor.Mode.SRC_OVER, antialiased, stamps);
+        if (drawn != null) canvas.markTempDirty(drawn);
     }
 
-    private void drawInterpolated(Canvas canvas, Point from, Point to) {
-        Graphics2D g2d = canvas.getTempGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                this.antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
-        g2d.setColor(color);
-
-        double distance = from.distance(to);
-        int steps = (int) (distance * this.hardness);
-        if (steps < 1) steps = 1;
-
-        for (int i = 0; i <= steps; i++) {
-            double t = (double) i / steps;
-            int x = (int) (from.x + (to.x - from.x) * t);
-            int y = (int) (from.y + (to.y - from.y) * t);
+    private float getDabSpacing() {
+        if (brushShape == BrushShape.BASIC) return Math.max(MIN_SPACING, size * BASIC_SPACING);
 
-            double angle = Math.atan2(to.y - from.y, to.x - from.x); // direction
-
-            drawBrushShape(g2d, x, y, angle);
-        }
-
-        g2d.dispose();
-        canvas.repaint();
+        float fraction = switch (brushShape) {
+            case MARKER -> MARKER_SPACING;
+            case CALLIGRAPHY -> CALLIGRAPHY_SPACING;
+            default -> DEFAULT_SPACING;
+        };
+        return Math.max(MIN_SPACING, size * fraction / hardness);
     }
 
-    private void drawBrushShape(Graphics2D g2d, int x, int y, double angle) {
+    private void drawDab(float x, float y, float angle) {
         switch (brushShape) {
-            case BASIC -> {
-                g2d.fillOval(x - size / 2, y - size / 2, size, size);
-            }
-            case MARKER -> {
-                float radius = size;
-                Point2D center = new Point2D.Float(x, y);
-                float[] dist = {0f, 0.15f, 0.2f, 1f};
-                Color[] colors = {
-                        new Color(color.getRed(), color.getGreen(), color.getBlue(), 100),
-                        new Color(color.getRed(), color.getGreen(), color.getBlue(), 80),
-                        new Color(color.getRed(), color.getGreen(), color.getBlue(), 20),
-                        new Color(color.getRed(), color.getGreen(), color.getBlue(), 0)
-                };
-
-                RadialGradientPaint paint = new RadialGradientPaint(center, radius, dist, colors);
-
-                Paint oldPaint = g2d.getPaint();
-                g2d.setPaint(paint);
-                g2d.fillOval(x - size, y - size, size * 2, size * 2);
-                g2d.setPaint(oldPaint);
-            }
-            case CALLIGRAPHY -> {
-                AffineTransform old = g2d.getTransform();
-                Paint oldPaint = g2d.getPaint();
-
-                g2d.translate(x, y);
-                g2d.rotate(Math.toRadians(-75));
-
-                int width = size;
-                int height = Math.max(size / 4, 1);
-
-                GradientPaint gp = new GradientPaint(
-                        -width / 2, 0, new Color(color.getRed(), color.getGreen(), color.getBlue(), 220),
-                        width / 2, 0, new Color(color.getRed(), color.getGreen(), color.getBlue(), 65)
-                );
-
-                g2d.setPaint(gp);
-                g2d.fillRect(-width / 2, -height / 2, width, height);
-
-                g2d.setPaint(oldPaint);
-                g2d.setTransform(old);
-            }
-            case PENCIL -> {
-                Random rand = new Random();
+            case BASIC -> batch.add(dabTransforms, x, y, size, angle, 255, DabBatch.CIRCLE);
+            case MARKER -> batch.add(dabTransforms, x, y, size, angle, getStampOpacity(100 / 255f, 1f), MASK_MARKER);
+            case CALLIGRAPHY -> batch.add(dabTransforms, x, y, size, CALLIGRAPHY_ANGLE,
+                    getStampOpacity(CALLIGRAPHY_ALPHA_START / 255f, 1f), MASK_CALLIGRAPHY);
+            case PENCIL -> addPencilGrain(x, y, angle);
+            case BRISTLES -> batch.add(dabTransforms, x, y, size, angle, getStampOpacity(1f, BRISTLES_OPACITY), MASK_BRISTLES);
+            case CHALK -> batch.add(dabTransforms, x, y, size, angle, getStampOpacity(1f, CHALK_OPACITY), MASK_CHALK);
+            case WATERBRUSH -> batch.add(dabTransforms, x, y, size, angle, getStampOpacity(1f, WATERBRUSH_OPACITY), MASK_WATERBRUSH);
+            case ROLLER -> batch.add(dabTransforms, x, y, size, angle, getStampOpacity(1f, ROLLER_OPACITY), MASK_ROLLER);
+        }
+    }
 
-                int circles = 3 + rand.nextInt(17); // 10 to 20 circles
-                int sprayRadius = size / 2;
+    // A spray of small faint circles around the dab, the symmetric copies get the same grain
+    private void addPencilGrain(float x, float y, float angle) {
+        int circles = Math.round((3 + random.nextInt(17)) * Math.max(1f, dabRatio)); // 10 to 20 circles per old dab
+        int sprayRadius = Math.max(1, size / 2);
 
-                for (int i = 0; i < circles; i++) {
-                    int offsetX = rand.nextInt(sprayRadius * 2) - sprayRadius;
-                    int offsetY = rand.nextInt(sprayRadius * 2) - sprayRadius;
+        for (int i = 0; i < circles; i++) {
+            int offsetX = random.nextInt(sprayRadius * 2) - sprayRadius;
+            int offsetY = random.nextInt(sprayRadius * 2) - sprayRadius;
 
-                    int circleSize = Math.max(2, size / 4 + rand.nextInt(size / 4)); // smallish random size
+            int circleSize = Math.max(2, size / 4 + random.nextInt(Math.max(1, size / 4))); // smallish random size
 
-                    int alpha = 5 + rand.nextInt(30); // 80-180 opacity range
-                    Color variedColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), alpha);
+            int alpha = 5 + random.nextInt(30);
+            batch.add(dabTransforms, x + offsetX, y + offsetY, circleSize, angle, alpha, DabBatch.CIRCLE);
+        }
+    }
 
-                    Paint oldPaint = g2d.getPaint();
-                    g2d.setPaint(variedColor);
+    // Opacity (0..255) for a stamp whose strongest pixel has the given alpha, keeping the build-up of the old spacing
+    private int getStampOpacity(float peakAlpha, float opacity) {
+        float compensated = StrokeSampler.compensate(peakAlpha * opacity, dabRatio) / peakAlpha;
+        return Math.round(Math.min(1f, compensated) * 255);
+    }
 
-                    g2d.fillOval(x + offsetX - circleSize / 2, y + offsetY - circleSize / 2, circleSize, circleSize);
+    // Stamp of a batch mask at the given size, the texture ones rotated to the nearest angle step
+    private BufferedImage getStamp(int mask, float dabSize, float angle) {
+        if (stampsStale) {
+            stampsStale = false;
+            stampCache.clear();
+        }
 
-                    g2d.setPaint(oldPaint);
-                }
-            }
-            case BRISTLES -> {
-                drawStamp(g2d, brushResourceProvider.getBrushTexture("texture_bristles"), x, y, angle, 0.4f, size, color); // example values
-            }
-            case CHALK -> {
-                drawStamp(g2d, brushResourceProvider.getBrushTexture("texture_chalk"), x, y, angle, 0.025f, size, color); // example values
-            }
-            case WATERBRUSH -> {
-                drawStamp(g2d, brushResourceProvider.getBrushTexture("texture_waterbrush"), x, y, angle, 0.1f, size, color); // example values
-            }
-            case ROLLER -> {
-                drawStamp(g2d, brushResourceProvider.getBrushTexture("texture_roller"), x, y, angle, 0.1f, size, color); // example values
-            }
+        int size = Math.max(1, Math.round(dabSize));
+        if (mask == MASK_MARKER) {
+            long key = StampCache.key(MASK_MARKER, size, antialiased ? 1 : 0, color.getRGB());
+            BufferedImage stamp = stampCache.get(key);
+            return stamp != null ? stamp : stampCache.put(key, renderMarkerStamp(size));
         }
-    }
 
-    private void drawStamp(Graphics2D g2d, BufferedImage stamp, int x, int y, double angle, float opacity, int size, Color color) {
-        Graphics2D g = (Graphics2D) g2d.create();
+        int angleStep = StampCache.quantizeAngle(angle);
+        if (mask == MASK_CALLIGRAPHY) {
+            long key = StampCache.key(MASK_CALLIGRAPHY, size, angleStep | (antialiased ? 0x80 : 0), color.getRGB());
+            BufferedImage stamp = stampCache.get(key);
+            return stamp != null ? stamp : stampCache.put(key, renderCalligraphyStamp(size, StampCache.angleOf(angleStep)));
+        }
 
-        g.translate(x, y);
-        g.rotate(angle);
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        long key = StampCache.key(mask, size, angleStep, color.getRGB());
+        BufferedImage stamp = stampCache.get(key);
+        if (stamp != null) return stamp;
+
+        String texture = switch (mask) {
+            case MASK_BRISTLES -> "texture_bristles";
+            case MASK_CHALK -> "texture_chalk";
+            case MASK_WATERBRUSH -> "texture_waterbrush";
+            default -> "texture_roller";
+        };
+        return stampCache.put(key, renderTextureStamp(brushResourceProvider.getBrushTexture(texture, size), size, StampCache.angleOf(angleStep)));
+    }
 
+    // Tints the texture with the current color and rotates it, big enough to hold any rotation
+    private BufferedImage renderTextureStamp(BufferedImage texture, int size, double angle) {
         // Step 1: Create a tinted image using color + DST_IN mask from the stamp
         BufferedImage tinted = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
         Graphics2D tg = tinted.createGraphics();
@@ -303,27 +322,93 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
         tg.setColor(color);
         tg.fillRect(0, 0, size, size);
 
-        // Mask the brush texture (assumes it's grayscale)
+        // Mask the brush texture (assumes it's grayscale), the mip level is at most twice the size
         tg.setComposite(AlphaComposite.DstIn);
-        tg.drawImage(stamp, 0, 0, size, size, null);
+        tg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        tg.drawImage(texture, 0, 0, size, size, null);
 
         tg.dispose();
 
-        // Step 2: Draw the tinted image
+        // Step 2: Rotate the tinted image around its center
+        int dimension = (int) Math.ceil(size * Math.sqrt(2)) + 2;
+        BufferedImage stamp = new BufferedImage(dimension, dimension, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = stamp.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.translate(dimension / 2, dimension / 2);
+        g.rotate(angle);
         g.drawImage(tinted, -size / 2, -size / 2, null);
+        g.dispose();
+
+        return stamp;
+    }
+
+    // The nib bar turned to the given angle, fading from its start to its end, big enough to hold any rotation
+    private BufferedImage renderCalligraphyStamp(int size, double angle) {
+        int dimension = (int) Math.ceil(size * Math.sqrt(2)) + 2;
+        BufferedImage stamp = new BufferedImage(dimension, dimension, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = stamp.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                this.antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.translate(dimension / 2, dimension / 2);
+        g.rotate(angle);
 
+        int width = size;
+        int height = Math.max(size / 4, 1);
+        g.setPaint(new GradientPaint(
+                -width / 2, 0, new Color(color.getRed(), color.getGreen(), color.getBlue(), CALLIGRAPHY_ALPHA_START),
+                width / 2, 0, new Color(color.getRed(), color.getGreen(), color.getBlue(), CALLIGRAPHY_ALPHA_END)
+        ));
+        g.fillRect(-width / 2, -height / 2, width, height);
         g.dispose();
+
+        return stamp;
     }
 
+    private BufferedImage renderMarkerStamp(int size) {
+        BufferedImage stamp = new BufferedImage(size * 2, size * 2, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = stamp.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                this.antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+
+        float radius = size;
+        Point2D center = new Point2D.Float(size, size);
+        float[] dist = {0f, 0.15f, 0.2f, 1f};
+        Color[] colors = {
+                new Color(color.getRed(), color.getGreen(), color.getBlue(), 100),
+                new Color(color.getRed(), color.getGreen(), color.getBlue(), 80),
+                new Color(color.getRed(), color.getGreen(), color.getBlue(), 20),
+                new Color(color.getRed(), color.getGreen(), color.getBlue(), 0)
+        };
+
+        g.setPaint(new RadialGradientPaint(center, radius, dist, colors));
+        g.fillOval(0, 0, size * 2, size * 2);
+        g.dispose();
+
+        return stamp;
+    }
+
+    /*
+     * BrushResourceProvider loads the brush textures and keeps each one as a set of square power-of-two levels.
+     * The largest level is resampled once from the source, the smaller ones are 2x2 box filtered from the level above.
+     * A dab of any size is then scaled down by less than half from the level picked for it.
+     */
     private static class BrushResourceProvider {
-        private HashMap<String, BufferedImage> brushTextures = new HashMap<>();
+        private static final int MAX_LEVEL_SIZE = 512; // brushes are at most 250px
+
+        private HashMap<String, BufferedImage[]> brushTextures = new HashMap<>(); // largest level first
 
         public BrushResourceProvider() {
             loadBrushTextures();
         }
 
-        public BufferedImage getBrushTexture(String name) {
-            return brushTextures.get(name);
+        // Smallest level at least as large as size
+        public BufferedImage getBrushTexture(String name, int size) {
+            BufferedImage[] levels = brushTextures.get(name);
+            int level = 0;
+            while (level + 1 < levels.length && levels[level + 1].getWidth() >= size) {
+                level++;
+            }
+            return levels[level];
         }
 
         public void loadBrushTextures() {
@@ -337,12 +422,55 @@ public class BrushTool extends AbstractTool implements CanvasPainter, ToolOption
                 if (!brushTextures.containsKey(name)) {
                     try {
                         BufferedImage texture = ImageIO.read(Objects.requireNonNull(getClass().getResource("/icons/brush/texture/" + name + ".png")));
-                        brushTextures.put(name, texture);
+                        brushTextures.put(name, createLevels(texture));
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
                 }
             }
         }
+
+        private static BufferedImage[] createLevels(BufferedImage texture) {
+            int size = Math.min(MAX_LEVEL_SIZE, Integer.highestOneBit(Math.max(texture.getWidth(), texture.getHeight()) - 1) << 1);
+
+            BufferedImage top = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = top.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(texture, 0, 0, size, size, null);
+            g.dispose();
+
+            ArrayList<BufferedImage> levels = new ArrayList<>();
+            levels.add(top);
+            while (size > 1) {
+                size /= 2;
+                levels.add(halve(levels.get(levels.size() - 1)));
+            }
+            return levels.toArray(new BufferedImage[0]);
+        }
+
+        // Averages each 2x2 block of a square TYPE_INT_ARGB image
+        private static BufferedImage halve(BufferedImage image) {
+            int source = image.getWidth();
+            int size = source / 2;
+            int[] src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            BufferedImage half = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            int[] dst = ((DataBufferInt) half.getRaster().getDataBuffer()).getData();
+
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int i = y * 2 * source + x * 2;
+                    int p0 = src[i], p1 = src[i + 1], p2 = src[i + source], p3 = src[i + source + 1];
+
+                    int result = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int sum = (p0 >>> shift & 0xff) + (p1 >>> shift & 0xff) + (p2 >>> shift & 0xff) + (p3 >>> shift & 0xff);
+                        result |= ((sum + 2) >> 2) << shift;
+                    }
+                    dst[y * size + x] = result;
+                }
+            }
+            return half;
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,18 +4,22 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.util.LinkedList;
-import java.util.Queue;
 import org.example.gui.canvas.Canvas;
 import org.example.app.color.ColorManager;
 import org.example.gui.canvas.CanvasPainter;
+import org.example.gui.canvas.raster.FloodFill;
+import org.example.gui.screen.component.ToolOptionsPanel;
 
 
 
-public class BucketTool extends AbstractTool implements CanvasPainter {
+public class BucketTool extends AbstractTool implements CanvasPainter, ToolOptionsProvider {
     private ColorManager colorManager;
     private Color color;
 
+    private int tolerance = 0; // 0..255, largest per channel difference that still counts as the same color
+    private boolean antialiased = false;
+    private boolean fillAll = false; // recolor every matching pixel, not only the connected ones
+
     public BucketTool() {
         super("Bucket");
         colorManager = ColorManager.getInstance();
@@ -24,37 +28,49 @@ public class BucketTool extends AbstractTool implements CanvasPainter {
 
     public void fill(Canvas canvas, Point mousePoint, Color newColor) {
         BufferedImage canvasImage = canvas.getCanvasImage();
-        Graphics2D g2d = canvasImage.createGraphics();
 
-        Color oldColor = canvas.getColorAt(canvas,mousePoint);
-        if (oldColor.equals(newColor)) return;
+        // Bounds are checked against the document, not the zoomed component
+        Rectangle filled = fillAll
+                ? FloodFill.fillAll(canvasImage, mousePoint.x, mousePoint.y, newColor.getRGB(), tolerance)
+                : FloodFill.fill(canvasImage, mousePoint.x, mousePoint.y, newColor.getRGB(), tolerance, antialiased);
+        if (filled != null) canvas.markDirty(filled);
+    }
+
+    // Large fills run on the stroke thread and don't freeze the UI
+    @Override
+    public boolean rendersOffEdt() {
+        return true;
+    }
 
-        Queue<Point> queue = new LinkedList<>();
-        queue.add(mousePoint);
+    public JPanel getToolOptionsPanel() {
+        ToolOptionsPanel panel = new ToolOptionsPanel();
 
-        while (!queue.isEmpty()) {
-            Point point = queue.poll();
-            int px = point.x;
-            int py = point.y;
+        JLabel toleranceLabel = new JLabel("Tolerance: " + Math.round(tolerance / 2.55f) + "%");
+        JSlider toleranceSlider = new JSlider(0, 100, Math.round(tolerance / 2.55f));
+        toleranceSlider.addChangeListener(e -> {
+            tolerance = Math.round(toleranceSlider.getValue() * 2.55f);
+            toleranceLabel.setText("Tolerance: " + toleranceSlider.getValue() + "%");
+        });
 
-            // Check if point is on the canvas and not the same color with already colored points
-            if (px < 0 || py < 0 || px >= canvas.getWidth()/canvas.getZoomFactor() || py >= canvas.getHeight()/canvas.getZoomFactor() || !(canvas.getColorAt(canvas , point).equals(oldColor))) {
-                continue;
-            }
+        JCheckBox antialiasCheckbox = new JCheckBox("Antialiasing");
+        antialiasCheckbox.setSelected(antialiased);
+        antialiasCheckbox.addItemListener(e -> {
+            antialiased = antialiasCheckbox.isSelected();
+        });
 
-            // Set the pixel to the chosen color
-            g2d.setColor(newColor);
-            g2d.fillRect(px, py, 1, 1);
+        JCheckBox fillAllCheckbox = new JCheckBox("Fill all matching");
+        fillAllCheckbox.setSelected(fillAll);
+        fillAllCheckbox.addItemListener(e -> {
+            fillAll = fillAllCheckbox.isSelected();
+            antialiasCheckbox.setEnabled(!fillAll); // edges are only blended for connected fills
+        });
+        antialiasCheckbox.setEnabled(!fillAll);
 
-            // Add surrounding pixels to the queue
-            queue.add(new Point(px + 1, py));
-            queue.add(new Point(px - 1, py));
-            queue.add(new Point(px, py + 1));
-            queue.add(new Point(px, py - 1));
-        }
+        panel.addComponentGroup(new JComponent[]{toleranceLabel, toleranceSlider});
+        panel.addComponent(antialiasCheckbox);
+        panel.addComponent(fillAllCheckbox);
 
-        g2d.dispose();
-        canvas.repaint();
+        return panel;
     }
 
     @Override
@@ -3,6 +3,8 @@ package org.example.app.tool;
 import org.example.app.Util;
 import org.example.gui.canvas.Canvas;
 import org.example.gui.canvas.CanvasPainter;
+import org.example.gui.canvas.raster.DabBatch;
+import org.example.gui.canvas.raster.DabCompositor;
 import org.example.gui.screen.component.ToolOptionsPanel;
 
 import javax.swing.*;
@@ -27,6 +29,30 @@ public class EraserTool extends AbstractTool implements CanvasPainter, ToolOptio
     private boolean antialiased;
     private float force; // New: 0.0 (weak) to 1.0 (full erase)
 
+    // Pre-rendered SOFT masks, keyed by size and force, and SHARP nibs, keyed by size and angle step
+    private static final long STAMP_CACHE_BYTES = 8L * 1024 * 1024;
+    private static final int MASK_SOFT = 1;
+    private static final int MASK_SHARP = 2;
+    private final StampCache stampCache = new StampCache(STAMP_CACHE_BYTES);
+    private final DabCompositor.StampSource stamps = (mask, size, angle) -> mask == MASK_SHARP ? getSharpStamp(angle) : getSoftStamp();
+
+    private static final float SHARP_ANGLE = (float) Math.toRadians(45);
+
+    // Dab spacing as a fraction of the size. The old stroke placed a dab every half pixel
+    private static final float DEFAULT_SPACING = 0.1f;
+    private static final float SHARP_SPACING = 0.05f;
+    private static final float MIN_SPACING = 0.5f;
+    private static final float OLD_SPACING = 0.5f;
+
+    private final SymmetryManager symmetry = SymmetryManager.getInstance();
+    private final StrokeSampler sampler = new StrokeSampler();
+    private final StrokeSampler.DabConsumer dabConsumer = this::drawEraserStamp;
+
+    // State of the segment being sampled, used by drawEraserStamp
+    private final DabBatch batch = new DabBatch();
+    private AffineTransform[] dabTransforms; // one per symmetric copy of a dab
+    private int dabOpacity;
+
     public EraserTool(int defaultSize) {
         super("Eraser");
         this.size = defaultSize;
@@ -38,6 +64,7 @@ public class EraserTool extends AbstractTool implements CanvasPainter, ToolOptio
     public void onMousePress(Canvas canvas, MouseEvent e) {
         if (e.getButton() == MouseEvent.BUTTON1 || e.getButton() == MouseEvent.BUTTON3) {
             lastPoint = canvas.getUnzoomedPoint(e.getPoint());
+            sampler.reset();
             erase(canvas, lastPoint, lastPoint);
         }
     }
@@ -58,6 +85,12 @@ public class EraserTool extends AbstractTool implements CanvasPainter, ToolOptio
         }
     }
 
+    // Erasing only touches the canvas pixels
+    @Override
+    public boolean rendersOffEdt() {
+        return true;
+    }
+
     public JPanel getToolOptionsPanel() {
         ToolOptionsPanel panel = new ToolOptionsPanel();
 
@@ -114,65 +147,95 @@ public class EraserTool extends AbstractTool implements CanvasPainter, ToolOptio
         panel.addComponentGroup(new JComponent[]{eraserTypeLabel, brushShapePanel});
         panel.addComponentGroup(new JComponent[]{sizeLabel, sizeSlider});
         panel.addComponentGroup(new JComponent[]{forceLabel, forceSlider});
+        symmetry.addOptions(panel);
         panel.addComponent(antialiasCheckbox);
 
         return panel;
     }
 
     private void erase(Canvas canvas, Point from, Point to) {
-        BufferedImage canvasImage = canvas.getCanvasImage();
-        Graphics2D g2d = canvasImage.createGraphics();
-
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OUT, force));
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        float spacing = Math.max(MIN_SPACING, size * (eraserShape == EraserShape.SHARP ? SHARP_SPACING : DEFAULT_SPACING));
+        float ratio = spacing / OLD_SPACING;
+        BufferedImage target = canvas.getCanvasImage();
+        dabTransforms = symmetry.getTransforms(target.getWidth() / 2.0, target.getHeight() / 2.0);
+
+        // Keep the build-up of the old spacing with fewer dabs
+        if (eraserShape == EraserShape.SOFT) {
+            float peak = force * 100 / 255f; // strongest pixel of the SOFT stamp
+            dabOpacity = Math.round(Math.min(1f, StrokeSampler.compensate(peak * force, ratio) / peak) * 255);
+        } else {
+            dabOpacity = Math.round(StrokeSampler.compensate(force, ratio) * 255);
+        }
 
-        int steps = (int) from.distance(to) * 2;
-        if (steps == 0) steps = 1;
+        // Every shape is collected and blended as one batch
+        batch.clear();
+        sampler.moveTo(to.x, to.y, spacing, dabConsumer);
 
-        for (int i = 0; i <= steps; i++) {
-            double t = (double) i / steps;
-            int x = (int) (from.x + (to.x - from.x) * t);
-            int y = (int) (from.y + (to.y - from.y) * t);
+        Rectangle erased = DabCompositor.drawBatch(target, batch, 0xff000000, DabCompositor.Mode.DST_OUT, antialiased, stamps);
+        if (erased != null) canvas.markDirty(erased);
+    }
 
-            drawEraserStamp(g2d, x, y);
+    private void drawEraserStamp(float x, float y, float angle) {
+        switch (eraserShape) {
+            case BASIC -> batch.add(dabTransforms, x, y, size, angle, dabOpacity, DabBatch.CIRCLE);
+            case SHARP -> batch.add(dabTransforms, x, y, size, SHARP_ANGLE, dabOpacity, MASK_SHARP);
+            case SOFT -> batch.add(dabTransforms, x, y, size, angle, dabOpacity, MASK_SOFT);
         }
+    }
 
-        g2d.dispose();
-        canvas.repaint();
+    private BufferedImage getSoftStamp() {
+        long key = StampCache.key(MASK_SOFT, size, (int) (force * 100), antialiased ? 1 : 0);
+        BufferedImage stamp = stampCache.get(key);
+        return stamp != null ? stamp : stampCache.put(key, renderSoftStamp());
     }
 
-    private void drawEraserStamp(Graphics2D g2d, int x, int y) {
-        switch (eraserShape) {
-            case BASIC -> g2d.fillOval(x - size / 2, y - size / 2, size, size);
-            case SHARP -> {
-                int width = size;
-                int height = Math.max(size / 6, 1);
-
-                AffineTransform old = g2d.getTransform();
-                g2d.translate(x, y);
-                g2d.rotate(Math.toRadians(45));
-                g2d.fillRect(-width / 2, -height / 2, width, height);
-                g2d.setTransform(old);
-            }
-            case SOFT -> {
-                RadialGradientPaint gradient = new RadialGradientPaint(
-                        new Point(x, y),
-                        size / 2f,
-                        new float[] {0f, 0.15f, 0.2f, 1f},
-                        new Color[] {
-                                new Color(0, 0, 0, (int) (force*100)),
-                                new Color(0, 0, 0, (int) (force*80)),
-                                new Color(0, 0, 0, (int) (force*10)),
-                                new Color(0, 0, 0, 0)
-                        }
-                );
-
-                Paint oldPaint = g2d.getPaint();
-                g2d.setPaint(gradient);
-                g2d.fillOval(x - size / 2, y - size / 2, size, size);
-                g2d.setPaint(oldPaint);
-            }
-        }
+    private BufferedImage getSharpStamp(float angle) {
+        int angleStep = StampCache.quantizeAngle(angle);
+        long key = StampCache.key(MASK_SHARP, size, angleStep, antialiased ? 1 : 0);
+        BufferedImage stamp = stampCache.get(key);
+        return stamp != null ? stamp : stampCache.put(key, renderSharpStamp(StampCache.angleOf(angleStep)));
+    }
+
+    // A thin bar as long as the size turned to the given angle, big enough to hold any rotation
+    private BufferedImage renderSharpStamp(double angle) {
+        int dimension = (int) Math.ceil(size * Math.sqrt(2)) + 2;
+        BufferedImage stamp = new BufferedImage(dimension, dimension, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = stamp.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.translate(dimension / 2, dimension / 2);
+        g.rotate(angle);
+
+        int width = size;
+        int height = Math.max(size / 6, 1);
+        g.setColor(Color.BLACK);
+        g.fillRect(-width / 2, -height / 2, width, height);
+        g.dispose();
+
+        return stamp;
+    }
+
+    private BufferedImage renderSoftStamp() {
+        BufferedImage stamp = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = stamp.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+
+        RadialGradientPaint gradient = new RadialGradientPaint(
+                new Point(size / 2, size / 2),
+                size / 2f,
+                new float[] {0f, 0.15f, 0.2f, 1f},
+                new Color[] {
+                        new Color(0, 0, 0, (int) (force*100)),
+                        new Color(0, 0, 0, (int) (force*80)),
+                        new Color(0, 0, 0, (int) (force*10)),
+                        new Color(0, 0, 0, 0)
+                }
+        );
+
+        g.setPaint(gradient);
+        g.fillOval(0, 0, size, size);
+        g.dispose();
+
+        return stamp;
     }
 
     public int getSize() {
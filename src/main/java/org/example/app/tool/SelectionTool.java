@@ -49,7 +49,7 @@ public class SelectionTool extends AbstractTool implements CanvasPainter, Overla
 
         // updateInfoLabels();
 
-        canvas.repaint();
+        canvas.requestFrame();
     }
 
     @Override
@@ -178,7 +178,10 @@ public class ShapeTool extends AbstractTool implements CanvasPainter, ToolOption
             }
 
             g2d.dispose();
-            canvas.repaint();
+
+            // Every shape stays within its size around the start point (hearts and stars are centered off it)
+            int reach = Math.max(Math.abs(current.x - startPoint.x), Math.abs(current.y - startPoint.y)) + thickness + 2;
+            canvas.markTempDirty(new Rectangle(startPoint.x - reach, startPoint.y - reach, reach * 2 + 1, reach * 2 + 1));
         }
     }
 
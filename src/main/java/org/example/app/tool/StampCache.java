@@ -0,0 +1,73 @@
+package org.example.app.tool;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * StampCache keeps pre-rendered dabs (tinted and rotated brush textures, gradient masks) so a stroke
+ * doesn't render the same dab again for every point. It is an LRU cache bounded by the bytes of its images.
+ * Keys are packed into a long, see key().
+ */
+class StampCache {
+    public static final int ANGLE_STEPS = 72; // 5 degree steps, the fixed nib angles of the calligraphy brush and the sharp eraser are on a step
+
+    private final long maxBytes;
+    private long bytes = 0;
+    private final LinkedHashMap<Long, BufferedImage> stamps = new LinkedHashMap<>(64, 0.75f, true);
+
+    StampCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the cached stamp or null
+    BufferedImage get(long key) {
+        return stamps.get(key);
+    }
+
+    BufferedImage put(long key, BufferedImage stamp) {
+        BufferedImage old = stamps.put(key, stamp);
+        if (old != null) bytes -= sizeOf(old);
+        bytes += sizeOf(stamp);
+
+        // Evict the least recently used stamps
+        Iterator<Map.Entry<Long, BufferedImage>> iterator = stamps.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Long, BufferedImage> eldest = iterator.next();
+            if (eldest.getKey() == key) continue;
+            bytes -= sizeOf(eldest.getValue());
+            iterator.remove();
+        }
+        return stamp;
+    }
+
+    void clear() {
+        stamps.clear();
+        bytes = 0;
+    }
+
+    /*
+     * mask: which texture or gradient (0..255)
+     * size: dab size in pixels (0..4095)
+     * variant: quantized angle or any other small parameter (0..255)
+     * argb: color of the dab
+     */
+    static long key(int mask, int size, int variant, int argb) {
+        return ((long) (mask & 0xff) << 56) | ((long) (size & 0xfff) << 44) | ((long) (variant & 0xff) << 32) | (argb & 0xffffffffL);
+    }
+
+    // Angle step of an angle in radians
+    static int quantizeAngle(double angle) {
+        int step = (int) Math.round(angle / (2 * Math.PI) * ANGLE_STEPS) % ANGLE_STEPS;
+        return step < 0 ? step + ANGLE_STEPS : step;
+    }
+
+    static double angleOf(int step) {
+        return step * 2 * Math.PI / ANGLE_STEPS;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.app.tool;
+
+/*
+ * StrokeSampler turns the points of a drag into evenly spaced dabs along the path.
+ * The distance travelled since the last dab is carried over from one segment to the next, so the spacing stays even
+ * no matter how often drag events arrive, and segment joins don't get a dab twice. Positions are kept as floats.
+ */
+class StrokeSampler {
+    public interface DabConsumer {
+        void dab(float x, float y, float angle);
+    }
+
+    private float lastX, lastY;
+    private float travelled; // distance since the last dab
+    private boolean active = false;
+
+    // Forget the current stroke, the next point starts a new one
+    void reset() {
+        active = false;
+    }
+
+    // Emits the dabs between the previous point and (x, y), the first point of a stroke gets a dab of its own
+    void moveTo(float x, float y, float spacing, DabConsumer consumer) {
+        if (!active) {
+            active = true;
+            lastX = x;
+            lastY = y;
+            travelled = 0;
+            consumer.dab(x, y, 0);
+            return;
+        }
+
+        float dx = x - lastX;
+        float dy = y - lastY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0) return;
+
+        float angle = (float) Math.atan2(dy, dx); // direction, the same for the whole segment
+        float unitX = dx / length;
+        float unitY = dy / length;
+
+        float position = spacing - travelled; // distance along the segment of the next dab
+        while (position <= length) {
+            consumer.dab(lastX + unitX * position, lastY + unitY * position, angle);
+            position += spacing;
+        }
+
+        travelled = length - (position - spacing);
+        lastX = x;
+        lastY = y;
+    }
+
+    // Opacity of one dab that builds up as much as ratio overlapping dabs of the given opacity (0..1)
+    static float compensate(float opacity, float ratio) {
+        return 1 - (float) Math.pow(1 - opacity, ratio);
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.app.tool;
+
+import org.example.app.Util;
+import org.example.gui.screen.component.ToolOptionsPanel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+
+/*
+ * SymmetryManager holds the symmetry settings shared by the brush and the eraser.
+ * The mirror modes reflect every dab around the center lines of the canvas, RADIAL repeats it around the center.
+ * Tools get the transforms of all the copies once per segment and replicate their dabs through them.
+ * It is a manager class that uses the singleton pattern.
+ */
+public class SymmetryManager {
+    public enum Mode {
+        NONE,
+        HORIZONTAL,
+        VERTICAL,
+        BOTH,
+        RADIAL
+    }
+
+    public static final int MIN_AXES = 2;
+    public static final int MAX_AXES = 16;
+
+    // Read by the stroke thread
+    private volatile Mode mode = Mode.NONE;
+    private volatile int axes = 6;
+
+    // Singleton pattern
+    private static SymmetryManager instance;
+
+    public static SymmetryManager getInstance() {
+        if (instance == null) {
+            instance = new SymmetryManager();
+        }
+        return instance;
+    }
+
+    private SymmetryManager() {}
+
+    // Transforms of every copy of a dab around (centerX, centerY), the identity first
+    public AffineTransform[] getTransforms(double centerX, double centerY) {
+        Mode mode = this.mode;
+        switch (mode) {
+            case HORIZONTAL, VERTICAL -> {
+                AffineTransform mirror = mirror(centerX, centerY, mode == Mode.HORIZONTAL ? -1 : 1, mode == Mode.VERTICAL ? -1 : 1);
+                return new AffineTransform[] {new AffineTransform(), mirror};
+            }
+            case BOTH -> {
+                return new AffineTransform[] {
+                        new AffineTransform(),
+                        mirror(centerX, centerY, -1, 1),
+                        mirror(centerX, centerY, 1, -1),
+                        mirror(centerX, centerY, -1, -1)
+                };
+            }
+            case RADIAL -> {
+                int count = axes;
+                AffineTransform[] transforms = new AffineTransform[count];
+                for (int i = 0; i < count; i++) {
+                    transforms[i] = AffineTransform.getRotateInstance(2 * Math.PI * i / count, centerX, centerY);
+                }
+                return transforms;
+            }
+            default -> {
+                return new AffineTransform[] {new AffineTransform()};
+            }
+        }
+    }
+
+    // Bounds of the area and all its copies
+    public static Rectangle getBounds(AffineTransform[] transforms, Rectangle area) {
+        Rectangle bounds = new Rectangle(area);
+        for (AffineTransform transform : transforms) {
+            if (!transform.isIdentity()) bounds.add(transform.createTransformedShape(area).getBounds());
+        }
+        return bounds;
+    }
+
+    private static AffineTransform mirror(double centerX, double centerY, double scaleX, double scaleY) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(centerX, centerY);
+        transform.scale(scaleX, scaleY);
+        transform.translate(-centerX, -centerY);
+        return transform;
+    }
+
+    // Adds the symmetry controls to a tool options panel
+    public void addOptions(ToolOptionsPanel panel) {
+        Mode[] modes = Mode.values();
+        String[] names = new String[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            names[i] = Util.getDisplayName(modes[i].name());
+        }
+
+        JLabel symmetryLabel = new JLabel("Symmetry:");
+        JComboBox<String> symmetryComboBox = new JComboBox<>(names);
+        symmetryComboBox.setSelectedIndex(mode.ordinal());
+
+        JLabel axesLabel = new JLabel("Axes: " + axes);
+        JSlider axesSlider = new JSlider(MIN_AXES, MAX_AXES, axes);
+        axesSlider.setEnabled(mode == Mode.RADIAL);
+        axesSlider.addChangeListener(e -> {
+            axes = axesSlider.getValue();
+            axesLabel.setText("Axes: " + axes);
+        });
+
+        symmetryComboBox.addActionListener(e -> {
+            mode = modes[symmetryComboBox.getSelectedIndex()];
+            axesSlider.setEnabled(mode == Mode.RADIAL);
+        });
+
+        panel.addComponentGroup(new JComponent[]{symmetryLabel, symmetryComboBox});
+        panel.addComponentGroup(new JComponent[]{axesLabel, axesSlider});
+    }
+
+    // Getters and setters
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getAxes() {
+        return axes;
+    }
+
+    public void setAxes(int axes) {
+        this.axes = Math.max(MIN_AXES, Math.min(MAX_AXES, axes));
+    }
+}
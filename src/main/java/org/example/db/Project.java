@@ -1,5 +1,7 @@
 package org.example.db;
 
+import org.example.gui.canvas.autosave.ProjectFile;
+
 import java.io.File;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -15,10 +17,21 @@ public class Project {
         this.lastOpened = lastOpened;
     }
 
-    public File getLatestAutosave() {
+    // Directory of the project under ~/kraska_saves
+    public File getSaveDirectory() {
         File savesRoot = new File(System.getProperty("user.home") + File.separator + "kraska_saves");
         String safeProjectName = this.name.replaceAll("[^a-zA-Z0-9\\-_]", "_");
-        File projectDir = new File(savesRoot, safeProjectName);
+        return new File(savesRoot, safeProjectName);
+    }
+
+    // Native project file (.kraska), see ProjectFile
+    public File getProjectFile() {
+        return new File(getSaveDirectory(), ProjectFile.FILE_NAME);
+    }
+
+    // Latest PNG autosave, only projects saved before the project file existed have one
+    public File getLatestAutosave() {
+        File projectDir = getSaveDirectory();
 
         if (!projectDir.exists()) return null;
 
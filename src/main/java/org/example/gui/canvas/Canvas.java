@@ -1,20 +1,25 @@
 package org.example.gui.canvas;
 
 import org.example.app.color.ColorManager;
+import org.example.app.tool.SymmetryManager;
 import org.example.app.tool.ToolManager;
 import org.example.db.Project;
+import org.example.gui.canvas.autosave.AutosaveJournal;
+import org.example.gui.canvas.history.TileHistory;
+import org.example.gui.canvas.raster.CanvasRaster;
+import org.example.gui.canvas.raster.MipPyramid;
+import org.example.gui.canvas.raster.TiledDataBuffer;
 import org.example.gui.canvas.selection.SelectionManager;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
-import java.util.Stack;
-import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -24,33 +29,45 @@ import java.util.concurrent.TimeUnit;
  * It is the base class of Kraska's painting engine.
  */
 public class Canvas extends JPanel {
-    private final int UNDO_REDO_LIMIT = 50;
+    private final int UNDO_REDO_LIMIT = 500;
+    private final long HISTORY_BUDGET = 256L * 1024 * 1024; // heap ceiling of the undo history
+    private final long HISTORY_SPILL_LIMIT = 2048L * 1024 * 1024; // maximum size of the history scratch file
+    private final long TILE_LOADER_SLICE = 50_000_000; // ns the tile loader decodes before it checks the viewport again
 
     private Dimension logicalSize = new Dimension(800, 600);
     private BufferedImage buffer;
     private BufferedImage tempBuffer;
-    private float tempBufferAlpha = 1.0f;
+    private MipPyramid pyramid; // downsampled copies of buffer for zoomed-out display
+    private volatile float tempBufferAlpha = 1.0f;
+    private Rectangle tempBounds; // area of tempBuffer drawn into since the last clear, null if empty
     private double zoomFactor = 1.0;
-    private long lastSavedTimestamp = 0;
-    private boolean canvasChangedSinceLastSave = false;
+    private AutosaveJournal journal; // project file and incremental autosave, null without a project
+    private volatile boolean loading; // an opened file is still being decoded into buffer, input is ignored
+    private BufferedImage preview; // scaled down copy of the file being opened, shown until it is decoded
     private final ScheduledExecutorService autosaveExecutor = Executors.newSingleThreadScheduledExecutor();
 
     // Managers
     private final ColorManager colorManager = ColorManager.getInstance();
     private final ToolManager toolManager = ToolManager.getInstance();
     private final SelectionManager selectionManager = SelectionManager.getInstance();
+    private final SymmetryManager symmetryManager = SymmetryManager.getInstance();
 
     // State management
     private MouseEvent lastEvent;
     private boolean isDrawing = false;
-    private final Stack<BufferedImage> undoStack = new Stack<>();
-    private final Stack<BufferedImage> redoStack = new Stack<>();
+    private TileHistory history = new TileHistory(UNDO_REDO_LIMIT, HISTORY_BUDGET, null, 0);
+    private final StrokeRenderer strokes = new StrokeRenderer(); // renders painters that support it off the EDT
+    private final Object damageLock = new Object(); // guards tempBounds, tools report from the stroke thread
+    private final FrameScheduler frames = new FrameScheduler(this::presentDamage); // paces repaints to the frame rate
 
     public Canvas() {}
 
     public Canvas(int width, int height, Color backgroundColor, Project project) {
         this.logicalSize = new Dimension(width, height);
-        autosaveExecutor.scheduleAtFixedRate(() -> autoSave(project.getName()), 5, 5, TimeUnit.SECONDS);
+        this.history = new TileHistory(UNDO_REDO_LIMIT, HISTORY_BUDGET,
+                new File(project.getSaveDirectory(), "history.swap"), HISTORY_SPILL_LIMIT);
+        this.journal = new AutosaveJournal(project.getSaveDirectory(), backgroundColor.getRGB());
+        autosaveExecutor.scheduleAtFixedRate(this::autoSave, 5, 5, TimeUnit.SECONDS);
         setPreferredSize(logicalSize);
         setBackground(backgroundColor);
         initializeCanvas(backgroundColor, project);
@@ -59,29 +76,58 @@ public class Canvas extends JPanel {
     }
 
     private void initializeCanvas(Color backgroundColor, Project project) {
-        buffer = new BufferedImage(logicalSize.width, logicalSize.height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = buffer.createGraphics();
-        g2d.setColor(backgroundColor);
-        g2d.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
-        g2d.dispose();
-
-        tempBuffer = new BufferedImage(logicalSize.width, logicalSize.height, BufferedImage.TYPE_INT_ARGB);
-        loadLatestAutoSave(project);
+        // Large documents get sparse tiled storage, see CanvasRaster
+        buffer = CanvasRaster.create(logicalSize.width, logicalSize.height, backgroundColor.getRGB());
+        tempBuffer = CanvasRaster.create(logicalSize.width, logicalSize.height, 0);
+        pyramid = new MipPyramid(buffer);
+        if (!loadLatestAutoSave(project)) history.reset(buffer);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
+        frames.paintStarted();
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g.create();
 
-        // Apply zoom (scale)
-        g2d.scale(zoomFactor, zoomFactor);
+        // Only the part of the document under both the clip and the viewport is painted
+        Rectangle visible = getVisibleRect();
+        Rectangle clip = g2d.getClipBounds();
+        if (clip != null) visible = visible.intersection(clip);
+        if (visible.isEmpty()) {
+            g2d.dispose();
+            frames.paintFinished();
+            return;
+        }
+        Rectangle region = toDocumentRect(visible);
+
+        // The preview of a file being opened shows through the parts not decoded yet
+        if (preview != null) {
+            Graphics2D previewG2d = (Graphics2D) g2d.create();
+            previewG2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            previewG2d.scale(zoomFactor, zoomFactor);
+            previewG2d.drawImage(preview, 0, 0, logicalSize.width, logicalSize.height, null);
+            previewG2d.dispose();
+        }
 
-        // Draw canvas image
+        // Draw canvas image, zoomed out views are drawn from the closest pyramid level
         if (buffer != null) {
-            g2d.drawImage(buffer, 0, 0, null);
+            int level = pyramid.getLevelFor(zoomFactor);
+            double levelScale = 1 << level;
+            Graphics2D levelG2d = (Graphics2D) g2d.create();
+            levelG2d.scale(zoomFactor * levelScale, zoomFactor * levelScale);
+            if (level > 0) {
+                levelG2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            }
+
+            Rectangle levelRegion = new Rectangle(region.x >> level, region.y >> level,
+                    (region.width >> level) + 2, (region.height >> level) + 2);
+            CanvasRaster.draw(levelG2d, pyramid.getLevel(level), levelRegion);
+            levelG2d.dispose();
         }
 
+        // Apply zoom (scale)
+        g2d.scale(zoomFactor, zoomFactor);
+
         if (tempBuffer != null) {
             // Draw tempBuffer with opacity (force) if currently drawing
             Composite originalComposite = g2d.getComposite();
@@ -90,27 +136,113 @@ public class Canvas extends JPanel {
                 g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, tempBufferAlpha));
             }
 
-            g2d.drawImage(tempBuffer, 0, 0, null);
+            CanvasRaster.draw(g2d, tempBuffer, region);
             g2d.setComposite(originalComposite);
         }
 
         g2d.dispose();
+        frames.paintFinished();
+    }
+
+    // Map a rectangle of the (zoomed) component back to document coordinates, rounded outwards
+    private Rectangle toDocumentRect(Rectangle rect) {
+        int x = (int) Math.floor(rect.x / zoomFactor);
+        int y = (int) Math.floor(rect.y / zoomFactor);
+        int right = (int) Math.ceil((rect.x + rect.width) / zoomFactor);
+        int bottom = (int) Math.ceil((rect.y + rect.height) / zoomFactor);
+        return new Rectangle(x, y, right - x + 1, bottom - y + 1);
+    }
+
+    // --- DAMAGE TRACKING ---
+
+    /*
+     * Report a changed area of the canvas in document coordinates.
+     * Reports are merged by the frame scheduler and repainted as one zoomed rectangle per frame.
+     * The canvas is not opaque, so Swing repaints the checkerboard behind that rectangle only.
+     */
+    public void markDirty(Rectangle region) {
+        if (region.isEmpty()) return;
+        if (pyramid != null) pyramid.invalidate(region);
+        if (journal != null) journal.markDirty(buffer, region);
+        history.markDirty(buffer, region);
+        addDamage(region);
+    }
+
+    /*
+     * Report an area of the temp buffer drawn into by the current stroke.
+     * Tools drawing through getTempGraphics() must report what they draw, only that area is cleared and committed.
+     */
+    public void markTempDirty(Rectangle region) {
+        if (region.isEmpty()) return;
+
+        synchronized (damageLock) {
+            if (tempBounds == null) {
+                tempBounds = new Rectangle(region);
+            } else {
+                tempBounds.add(region);
+            }
+        }
+        addDamage(region);
     }
 
-    @Override
-    public void repaint() {
-        super.repaint();
+    public void markTempDirty(Point from, Point to, int radius) {
+        markTempDirty(segmentBounds(from, to, radius));
+    }
 
-        // Force parent (CheckerboardPanel) to repaint as well
-        Container parent = getParent();
-        if (parent != null) {
-            parent.repaint(); // <- ensures the checkerboard is refreshed
-        }
+    private void addDamage(Rectangle region) {
+        frames.addDamage(region);
+    }
+
+    // Damage of a stroke segment drawn with the given radius around its points
+    public void markDirty(Point from, Point to, int radius) {
+        markDirty(segmentBounds(from, to, radius));
+    }
+
+    public static Rectangle segmentBounds(Point from, Point to, int radius) {
+        int x = Math.min(from.x, to.x) - radius;
+        int y = Math.min(from.y, to.y) - radius;
+        return new Rectangle(x, y,
+                Math.abs(to.x - from.x) + radius * 2 + 1,
+                Math.abs(to.y - from.y) + radius * 2 + 1);
+    }
+
+    // The whole canvas changed (e.g. filters, fills)
+    public void markDirty() {
+        history.markAllDirty();
+        invalidateAll();
+    }
+
+    // The history already holds the new state, only the display and the journal follow it
+    private void invalidateAll() {
+        if (pyramid != null) pyramid.invalidateAll();
+        if (journal != null) journal.markAllDirty();
+        requestFrame();
+    }
+
+    // Repaint the whole canvas with the next frame, for per-event UI feedback such as selection drags
+    public void requestFrame() {
+        addDamage(new Rectangle(0, 0, logicalSize.width, logicalSize.height));
+    }
+
+    public FrameScheduler getFrameScheduler() {
+        return frames;
+    }
+
+    // Called by the frame scheduler on the EDT with the damage of one frame
+    private void presentDamage(Rectangle damage) {
+        // Translate through the zoom factor, with a pixel of margin for filtering at fractional zooms
+        int x = (int) Math.floor(damage.x * zoomFactor) - 1;
+        int y = (int) Math.floor(damage.y * zoomFactor) - 1;
+        int right = (int) Math.ceil((damage.x + damage.width) * zoomFactor) + 1;
+        int bottom = (int) Math.ceil((damage.y + damage.height) * zoomFactor) + 1;
+        repaint(x, y, right - x, bottom - y);
     }
 
     // --- DRAWING OPERATIONS ---
 
     public void startDrawing(MouseEvent e) {
+        if (loading) return;
+        strokes.drain();
         saveToUndoStack();
         isDrawing = true;
         lastEvent = e;
@@ -118,171 +250,254 @@ public class Canvas extends JPanel {
         if (selectionManager.isActive()) selectionManager.getView().onMousePress(this, e);
 
         if (!(selectionManager.restrictToolInput && selectionManager.isActive()) && toolManager.getActiveTool() instanceof CanvasPainter tool) {
-            tool.onMousePress(this, e);
+            dispatch(tool, () -> tool.onMousePress(this, e));
         }
     }
 
     public void continueDrawing(MouseEvent e) {
+        if (loading) return;
         if (selectionManager.isActive()) selectionManager.getView().onMouseDrag(this, e);
 
         if (!(selectionManager.restrictToolInput && selectionManager.isActive()) && isDrawing && toolManager.getActiveTool() instanceof CanvasPainter tool) {
-            tool.onMouseDrag(this, e);
+            dispatch(tool, () -> tool.onMouseDrag(this, e));
         }
     }
 
     public void finishDrawing() {
+        if (loading) return;
         if (selectionManager.isActive()) selectionManager.getView().onMouseRelease(this, lastEvent);
 
+        MouseEvent event = lastEvent;
         if (!(selectionManager.restrictToolInput && selectionManager.isActive()) && isDrawing && toolManager.getActiveTool() instanceof CanvasPainter tool) {
-            tool.onMouseRelease(this, lastEvent);
+            dispatch(tool, () -> tool.onMouseRelease(this, event));
         }
 
         isDrawing = false;
         lastEvent = null;
     }
 
+    // Painters that support it are rendered on the stroke thread, the others on the EDT once the stroke thread is idle
+    private void dispatch(CanvasPainter tool, Runnable event) {
+        if (tool.rendersOffEdt()) {
+            strokes.submit(event);
+        } else {
+            strokes.drain();
+            event.run();
+        }
+    }
+
+    // Run work on the stroke thread, after the events queued so far (e.g. a tool's own timer)
+    public void submitStroke(Runnable task) {
+        strokes.submit(task);
+    }
+
     public void applyImageOperation(BufferedImageOp op) {
+        if (loading) return;
+        strokes.drain();
         saveToUndoStack();
         BufferedImage result = op.filter(buffer, null);
         Graphics2D g2d = buffer.createGraphics();
         g2d.drawImage(result, 0, 0, null);
         g2d.dispose();
-        repaint();
+        markDirty();
     }
 
     // --- CANVAS STATE MANAGEMENT ---
 
+    // Record the changes made since the last checkpoint as one undo step (only the changed tiles are stored)
     private void saveToUndoStack() {
-        BufferedImage copy = new BufferedImage(
-                buffer.getWidth(), buffer.getHeight(), buffer.getType());
-        Graphics2D g2d = copy.createGraphics();
-        g2d.drawImage(buffer, 0, 0, null);
-        g2d.dispose();
-        if (undoStack.size() >= UNDO_REDO_LIMIT) undoStack.removeFirst();
-        undoStack.push(copy);
-        redoStack.clear();
-        canvasChangedSinceLastSave = true;
-    }
-
-    // Automatically save the canvas if changes have been made
-    private void autoSave(String projectName) {
-    if (!canvasChangedSinceLastSave || buffer == null) return;
-
-    try {
-        // Main saves directory (e.g., in user home)
-        String savesRoot = System.getProperty("user.home") + File.separator + "kraska_saves";
-        // Sanitize project name for folder use
-        String safeProjectName = projectName.replaceAll("[^a-zA-Z0-9\\-_]", "_");
-        File projectDir = new File(savesRoot, safeProjectName);
-
-        if (!projectDir.exists()) projectDir.mkdirs();
-
-        // Generate a filename based on the current timestamp
-        String filename = "autosave_" + System.currentTimeMillis() + ".png";
-        File file = new File(projectDir, filename);
-
-        // Create a safe copy of the canvas to save
-        BufferedImage safeCopy = copyCanvas();
-        ImageIO.write(safeCopy, "PNG", file);
-
-        lastSavedTimestamp = System.currentTimeMillis();
-        canvasChangedSinceLastSave = false;
-
-        // Clean up old autosaves
-        File[] files = projectDir.listFiles((dir, name) -> name.endsWith(".png"));
-        if (files != null && files.length > 3) {
-            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
-            for (int i = 0; i < files.length - 3; i++) {
-                files[i].delete();
-            }
-        }
+        history.checkpoint(buffer);
+    }
+
+    // Persist the tiles changed since the last autosave from a snapshot, painting isn't blocked while it is written
+    private void autoSave() {
+        if (buffer == null || !journal.hasChanges()) return;
 
-        System.out.println("Auto-saved at: " + file.getAbsolutePath());
-    } catch (IOException ex) {
-        ex.printStackTrace();
+        try {
+            journal.save(this::snapshot, getToolState());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); // shutting down
+        }
     }
-}
 
-    // Shutdown the autosave functionality (stop the autosave executor)
+    // Shutdown the autosave functionality (stop the autosave executor), the stroke thread and release the undo history
     public void shutdownAutosave() {
         autosaveExecutor.shutdownNow();
+        strokes.shutdown();
+        history.close();
     }
 
-    // Load the latest autosave file if it exists
-    public void loadLatestAutoSave(Project project) {
-        File latest = project.getLatestAutosave();
+    // Open the project file and its autosave journal, returns false if the project wasn't saved yet
+    public boolean loadLatestAutoSave(Project project) {
+        if (journal == null) journal = new AutosaveJournal(project.getSaveDirectory(), getBackground().getRGB());
+
+        try {
+            BufferedImage loaded = journal.load();
+            if (loaded == null) return false;
 
-        if (latest != null) {
+            strokes.drain();
+            setBuffer(loaded);
+            applyToolState(journal.getProperties());
+
+            // Pending tiles of a large project stay pending in the history, their committed state is the file
+            history.reset(loaded);
+            if (CanvasRaster.hasPendingTiles(loaded)) startTileLoader(loaded);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Decode the pending tiles of a lazily opened project in the background, the ones in and around the viewport first
+    private void startTileLoader(BufferedImage image) {
+        Thread loader = new Thread(() -> loadPendingTiles(image), "kraska-tile-loader");
+        loader.setDaemon(true);
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
+    private void loadPendingTiles(BufferedImage image) {
+        TiledDataBuffer data = CanvasRaster.getTiledBuffer(image);
+        Rectangle focus = null;
+        int[] order = new int[0];
+        int next = 0;
+
+        while (data.hasPendingTiles()) {
+            // The order follows the viewport, it is checked again every few milliseconds
+            Rectangle[] viewport = new Rectangle[1];
             try {
-                BufferedImage loadedImage = ImageIO.read(latest);
-                if (loadedImage != null) {
-                    Graphics2D g2d = buffer.createGraphics();
-                    g2d.drawImage(loadedImage, 0, 0, null);
-                    g2d.dispose();
-                    repaint();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                SwingUtilities.invokeAndWait(() -> viewport[0] = buffer == image ? getVisibleDocumentRect() : null);
+            } catch (InterruptedException | InvocationTargetException e) {
+                return;
+            }
+            if (viewport[0] == null) return; // another image was opened
+
+            if (!viewport[0].equals(focus) || next == order.length) {
+                focus = viewport[0];
+                order = CanvasRaster.getPendingTiles(image, focus);
+                next = 0;
+                if (order.length == 0) return;
             }
+
+            long deadline = System.nanoTime() + TILE_LOADER_SLICE;
+            while (next < order.length && System.nanoTime() < deadline) data.load(order[next++]);
         }
     }
 
-    public void undo() {
-        if (!undoStack.isEmpty()) {
-            redoStack.push(copyCanvas());
-            if (redoStack.size() >= UNDO_REDO_LIMIT) redoStack.removeLast();
-            buffer = undoStack.pop();
-            repaint();
+    // Tool settings saved with the project
+    private Map<String, String> getToolState() {
+        Map<String, String> state = new LinkedHashMap<>();
+        state.put("tool", toolManager.getActiveTool().getName());
+        state.put("color.primary", Integer.toString(colorManager.getPrimary().getRGB()));
+        state.put("color.secondary", Integer.toString(colorManager.getSecondary().getRGB()));
+        state.put("symmetry.mode", symmetryManager.getMode().name());
+        state.put("symmetry.axes", Integer.toString(symmetryManager.getAxes()));
+        return state;
+    }
+
+    private void applyToolState(Map<String, String> state) {
+        try {
+            if (state.containsKey("tool")) toolManager.setActiveTool(state.get("tool"));
+            if (state.containsKey("color.primary")) colorManager.setPrimary(new Color(Integer.parseInt(state.get("color.primary")), true));
+            if (state.containsKey("color.secondary")) colorManager.setSecondary(new Color(Integer.parseInt(state.get("color.secondary")), true));
+            if (state.containsKey("symmetry.mode")) symmetryManager.setMode(SymmetryManager.Mode.valueOf(state.get("symmetry.mode")));
+            if (state.containsKey("symmetry.axes")) symmetryManager.setAxes(Integer.parseInt(state.get("symmetry.axes")));
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace(); // written by a newer version, keep the current settings
         }
     }
 
+    public void undo() {
+        if (loading) return;
+        strokes.drain();
+        restoreFromHistory(history.undo(buffer, this::invalidateTile));
+    }
+
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            undoStack.push(copyCanvas());
-            if (undoStack.size() >= UNDO_REDO_LIMIT) undoStack.removeLast();
-            buffer = redoStack.pop();
-            repaint();
+        if (loading) return;
+        strokes.drain();
+        restoreFromHistory(history.redo(buffer, this::invalidateTile));
+    }
+
+    // Tiles are swapped back in place and reported one by one, a new image is only returned when the step changed the canvas size
+    private void restoreFromHistory(BufferedImage result) {
+        if (result != buffer) {
+            if (journal != null) journal.markAllDirty();
+            setBuffer(result);
         }
     }
 
-    private BufferedImage copyCanvas() {
-        BufferedImage copy = new BufferedImage(
-                buffer.getWidth(), buffer.getHeight(), buffer.getType());
-        Graphics2D g2d = copy.createGraphics();
-        g2d.drawImage(buffer, 0, 0, null);
-        g2d.dispose();
-        return copy;
+    // A tile written back by undo or redo, the history is not told since it holds that state already
+    private void invalidateTile(int index) {
+        Rectangle bounds = CanvasRaster.getTileBounds(buffer, index);
+        if (pyramid != null) pyramid.invalidate(bounds);
+        if (journal != null) journal.markDirty(buffer, bounds);
+        addDamage(bounds);
+    }
+
+    /*
+     * Frozen view of the canvas for readers on other threads (autosave, export, thumbnails).
+     * It is taken on the EDT once the stroke thread is idle, so no stroke, fill or undo is half applied,
+     * and stays valid while painting continues: sparse canvases share their tiles copy-on-write.
+     */
+    public BufferedImage snapshot() throws InterruptedException {
+        if (SwingUtilities.isEventDispatchThread()) {
+            strokes.drain();
+            return CanvasRaster.snapshot(buffer);
+        }
+
+        BufferedImage[] result = new BufferedImage[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                strokes.drain();
+                result[0] = CanvasRaster.snapshot(buffer);
+            });
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return result[0];
     }
 
     public void clearCanvas() {
+        if (loading) return;
+        strokes.drain();
         saveToUndoStack();
-        Graphics2D g2d = buffer.createGraphics();
-        g2d.setColor(colorManager.getSecondary());
-        g2d.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
-        g2d.dispose();
-        repaint();
+        CanvasRaster.fill(buffer, colorManager.getSecondary().getRGB());
+        markDirty();
     }
 
     public Graphics2D getTempGraphics() {
+        strokes.drain();
         return tempBuffer.createGraphics();
     }
 
+    // Clear what the current stroke drew, the rest of the temp buffer is already empty
     public void clearTempBuffer() {
-        Graphics2D g2d = tempBuffer.createGraphics();
-        g2d.setComposite(AlphaComposite.Clear);
-        g2d.fillRect(0, 0, tempBuffer.getWidth(), tempBuffer.getHeight());
-        g2d.dispose();
-        repaint();
+        Rectangle cleared;
+        synchronized (damageLock) {
+            cleared = tempBounds;
+            tempBounds = null;
+        }
+        if (cleared == null) return;
+
+        CanvasRaster.clear(tempBuffer, cleared);
+        addDamage(cleared);
     }
 
+    // Commit the stroke to the canvas, only the stroke bounds are composited
     public void applyTempBuffer(float opacity) {
-        Graphics2D g2d = buffer.createGraphics();
-        g2d.setComposite(AlphaComposite.SrcOver.derive(opacity));
-        g2d.drawImage(tempBuffer, 0, 0, null);
-        g2d.dispose();
+        Rectangle stroke;
+        synchronized (damageLock) {
+            if (tempBounds == null) return;
+            stroke = new Rectangle(tempBounds);
+        }
+        CanvasRaster.composite(buffer, tempBuffer, opacity, stroke);
 
         clearTempBuffer(); // Clear temp after applying
-        repaint();
+        markDirty(stroke);
     }
 
     // --- MOUSE LISTENERS ---
@@ -312,6 +527,7 @@ public class Canvas extends JPanel {
     // --- UTILITY METHODS ---
 
     public Graphics2D getCanvasGraphics() {
+        strokes.drain();
         return buffer.createGraphics();
     }
 
@@ -335,27 +551,24 @@ public class Canvas extends JPanel {
 
     public Color getColorAt(Canvas canvas, Point point) {
         BufferedImage image = canvas.getCanvasImage();
-        if (point.x >= 0 && point.x < image.getWidth()
-                && point.y >= 0 && point.y < image.getHeight()) {
-            return new Color(image.getRGB(point.x, point.y), true);
+        if (CanvasRaster.contains(image, point.x, point.y)) {
+            return new Color(CanvasRaster.getPixel(image, point.x, point.y), true);
         }
         return Color.WHITE;
     }
 
     // --- GETTERS AND SETTERS ---
 
+    // Off the stroke thread, this waits for the queued stroke events so the caller sees a settled image
     public BufferedImage getCanvasImage() {
+        strokes.drain();
         return buffer;
     }
+    // Ignored while an opened file is decoding, the loader keeps writing to the current buffer
     public void setCanvasImage(BufferedImage newImage) {
-        this.buffer = newImage;
-        this.logicalSize = new Dimension(newImage.getWidth(), newImage.getHeight());
-        this.tempBuffer = new BufferedImage(
-                newImage.getWidth(), newImage.getHeight(), BufferedImage.TYPE_INT_ARGB
-        );
-        setPreferredSize(getPreferredSize());
-        revalidate();
-        repaint();
+        if (loading) return;
+        strokes.drain();
+        replaceBuffer(toArgbImage(newImage));
     }
 
     public ToolManager getToolManager() {
@@ -387,23 +600,90 @@ public class Canvas extends JPanel {
     }
 
     public BufferedImage getTempBuffer() {
+        strokes.drain();
         return tempBuffer;
     }
 
     public void setTempBuffer(BufferedImage tempBuffer) {
+        strokes.drain();
         this.tempBuffer = tempBuffer;
+        synchronized (damageLock) {
+            this.tempBounds = new Rectangle(0, 0, tempBuffer.getWidth(), tempBuffer.getHeight());
+        }
     }
 
     public void setImage(BufferedImage buffer) {
-        this.buffer = buffer;
-        this.logicalSize = new Dimension(buffer.getWidth(), buffer.getHeight());
-        this.tempBuffer = new BufferedImage(buffer.getWidth(), buffer.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        if (loading) return;
+        strokes.drain();
+        replaceBuffer(toArgbImage(buffer));
+    }
+
+    /*
+     * Show an opened file that is still being decoded, see ImageLoader.
+     * Decoded regions are written to image on the stroke thread and reported with markDirty, input is ignored until finishLoading.
+     */
+    public void startLoading(BufferedImage image) {
+        strokes.drain();
+        replaceBuffer(image);
+        this.preview = null;
+        this.loading = true;
+    }
+
+    public void setPreview(BufferedImage preview) {
+        this.preview = preview;
+        repaint();
+    }
+
+    public void finishLoading() {
+        strokes.drain();
+        this.loading = false;
+        this.preview = null;
+        repaint();
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    // Part of the document shown in the viewport
+    public Rectangle getVisibleDocumentRect() {
+        return toDocumentRect(getVisibleRect());
+    }
+
+    private void replaceBuffer(BufferedImage newImage) {
+        if (journal != null) journal.markAllDirty();
+        history.markAllDirty();
+        setBuffer(newImage);
+    }
+
+    private void setBuffer(BufferedImage newImage) {
+        this.buffer = newImage;
+        this.pyramid = new MipPyramid(newImage);
+        this.logicalSize = new Dimension(newImage.getWidth(), newImage.getHeight());
+        this.tempBuffer = CanvasRaster.create(newImage.getWidth(), newImage.getHeight(), 0);
+        synchronized (damageLock) {
+            this.tempBounds = null;
+        }
         setPreferredSize(getPreferredSize());
         revalidate();
         repaint();
     }
 
-    public BufferedImage getImage() {return buffer;}
+    // The painting engine works on packed ARGB pixels, convert images loaded from other sources
+    private static BufferedImage toArgbImage(BufferedImage image) {
+        if (CanvasRaster.isCanvasImage(image)) return image;
+
+        BufferedImage converted = CanvasRaster.create(image.getWidth(), image.getHeight(), 0);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return converted;
+    }
+
+    public BufferedImage getImage() {
+        strokes.drain();
+        return buffer;
+    }
 
     public CanvasViewer getViewer() {
         return (CanvasViewer) getParent().getParent().getParent().getParent();
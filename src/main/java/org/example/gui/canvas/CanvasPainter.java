@@ -11,4 +11,12 @@ public interface CanvasPainter {
     void onMousePress(Canvas canvas, MouseEvent e);
     void onMouseDrag(Canvas canvas, MouseEvent e);
     void onMouseRelease(Canvas canvas, MouseEvent e);
+
+    /*
+     * Painters that only touch the canvas through its pixel API (no Swing components, no UI state) can return true.
+     * Their events are then rendered on the canvas' stroke thread instead of the EDT, see StrokeRenderer.
+     */
+    default boolean rendersOffEdt() {
+        return false;
+    }
 }
@@ -6,6 +6,7 @@ import org.example.gui.canvas.selection.SelectionView;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 
 /*
  * CanvasViewer is a JScrollPane that wraps a Canvas and provides a zooming and panning functionality.
@@ -181,25 +182,36 @@ public class CanvasViewer extends JScrollPane {
         private static final Color COLOR1 = new Color(200, 200, 200);
         private static final Color COLOR2 = new Color(240, 240, 240);
 
+        // One 2x2 period of the pattern, rendered once and repeated by the paint
+        private static final TexturePaint PATTERN = createPattern();
+
         public CheckerboardPanel() {
             super(new GridBagLayout());
         }
 
         @Override
         protected void paintComponent(Graphics g) {
-            // Full clean background
-            super.paintComponent(g);
-
+            // The pattern covers the whole panel, so only the clip region is filled
             Graphics2D g2d = (Graphics2D) g.create();
+            Rectangle clip = g2d.getClipBounds();
+            if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
 
-            // Checkerboard fill
-            for (int y = 0; y < getHeight(); y += TILE_SIZE) {
-                for (int x = 0; x < getWidth(); x += TILE_SIZE) {
-                    g2d.setColor(((x / TILE_SIZE + y / TILE_SIZE) % 2 == 0) ? COLOR1 : COLOR2);
-                    g2d.fillRect(x, y, TILE_SIZE, TILE_SIZE);
-                }
-            }
+            g2d.setPaint(PATTERN);
+            g2d.fill(clip);
             g2d.dispose();
         }
+
+        private static TexturePaint createPattern() {
+            BufferedImage pattern = new BufferedImage(TILE_SIZE * 2, TILE_SIZE * 2, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = pattern.createGraphics();
+            g2d.setColor(COLOR1);
+            g2d.fillRect(0, 0, TILE_SIZE * 2, TILE_SIZE * 2);
+            g2d.setColor(COLOR2);
+            g2d.fillRect(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+            g2d.fillRect(0, TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            g2d.dispose();
+
+            return new TexturePaint(pattern, new Rectangle(0, 0, TILE_SIZE * 2, TILE_SIZE * 2));
+        }
     }
 }
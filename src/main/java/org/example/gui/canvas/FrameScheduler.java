@@ -0,0 +1,94 @@
+package org.example.gui.canvas;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.function.Consumer;
+
+/*
+ * FrameScheduler collects the damage reported to a canvas and presents it at most once per frame, from a single
+ * Swing timer that only runs while there is something to present. It also measures how long the frames take to paint.
+ * The target rate defaults to 60 frames per second and can be set with -Dkraska.fps=<rate>.
+ */
+public class FrameScheduler {
+    public static final int DEFAULT_FRAME_RATE = Integer.getInteger("kraska.fps", 60);
+
+    private final Consumer<Rectangle> presenter; // repaints a damaged area, called on the EDT
+    private final Timer timer;
+    private long frameInterval; // nanoseconds
+
+    // Guarded by this, damage is reported from the EDT and the stroke thread
+    private Rectangle pending;
+    private long lastPresent;
+
+    // Frame time measurement, EDT only
+    private long paintStart;
+    private long lastFrameTime;
+    private double averageFrameTime;
+
+    public FrameScheduler(Consumer<Rectangle> presenter) {
+        this.presenter = presenter;
+        this.timer = new Timer(0, e -> present());
+        setFrameRate(DEFAULT_FRAME_RATE);
+    }
+
+    public synchronized void setFrameRate(int framesPerSecond) {
+        frameInterval = 1_000_000_000L / Math.max(1, framesPerSecond);
+        timer.setDelay((int) Math.max(1, frameInterval / 1_000_000));
+    }
+
+    public synchronized int getFrameRate() {
+        return (int) (1_000_000_000L / frameInterval);
+    }
+
+    // Add damage (document coordinates), it is presented with the next frame
+    public synchronized void addDamage(Rectangle region) {
+        if (pending == null) {
+            pending = new Rectangle(region);
+        } else {
+            pending.add(region);
+        }
+
+        if (!timer.isRunning()) {
+            // Present right away if the last frame is old enough, otherwise when its interval is over
+            long wait = Math.max(0, lastPresent + frameInterval - System.nanoTime());
+            timer.setInitialDelay((int) (wait / 1_000_000));
+            timer.start();
+        }
+    }
+
+    private void present() {
+        Rectangle damage;
+        synchronized (this) {
+            damage = pending;
+            pending = null;
+            if (damage == null) {
+                timer.stop(); // idle until the next damage
+                return;
+            }
+            lastPresent = System.nanoTime();
+        }
+        presenter.accept(damage);
+    }
+
+    // --- FRAME TIMES ---
+
+    // Called by the canvas around paintComponent
+    public void paintStarted() {
+        paintStart = System.nanoTime();
+    }
+
+    public void paintFinished() {
+        lastFrameTime = System.nanoTime() - paintStart;
+        averageFrameTime = averageFrameTime == 0 ? lastFrameTime : averageFrameTime * 0.9 + lastFrameTime * 0.1;
+    }
+
+    // Paint time of the last frame in milliseconds
+    public double getLastFrameTime() {
+        return lastFrameTime / 1_000_000.0;
+    }
+
+    // Moving average of the paint times in milliseconds
+    public double getAverageFrameTime() {
+        return averageFrameTime / 1_000_000.0;
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.gui.canvas;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * StrokeRenderer runs tool rendering on a dedicated "kraska-stroke" thread, so heavy brushes don't hold up event
+ * delivery on the EDT. Input is pushed to a lock-free queue and executed in order; the EDT only presents the regions
+ * the tools report as dirty. Code that touches the canvas pixels from another thread calls drain() first, so it never
+ * sees a half-applied event.
+ */
+public class StrokeRenderer {
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(); // submitted but not finished
+    private final Object idleLock = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public StrokeRenderer() {
+        thread = new Thread(this::run, "kraska-stroke");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void submit(Runnable task) {
+        pending.incrementAndGet();
+        queue.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    // Wait until everything submitted so far has been rendered, does nothing on the stroke thread itself
+    public void drain() {
+        if (isStrokeThread() || !running) return;
+
+        synchronized (idleLock) {
+            boolean interrupted = false;
+            while (pending.get() > 0) {
+                try {
+                    idleLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isStrokeThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Finish the queued work and stop the thread
+    public void shutdown() {
+        drain();
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            Runnable task = queue.poll();
+            if (task == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (idleLock) {
+                        idleLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
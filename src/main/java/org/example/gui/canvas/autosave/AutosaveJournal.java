@@ -0,0 +1,477 @@
+package org.example.gui.canvas.autosave;
+
+import org.example.gui.canvas.raster.CanvasRaster;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * AutosaveJournal persists the canvas of a project incrementally.
+ * The project directory holds the project file (project.kraska, see ProjectFile) and a journal (autosave.journal)
+ * of the tiles changed since the project file was last written. Each save appends one frame holding the tiles
+ * reported dirty whose pixels differ from what was last written, so its cost follows the edited area instead of
+ * the canvas size. Once the journal outgrows the project file, or gets old, it is compacted: the tiles it holds
+ * are written to the project file and the journal starts over.
+ *
+ * Fresh journals are written to a temporary file and renamed in place, and a journal names the generation of the
+ * project file it applies to, so a crash at any point leaves a loadable state. Frames carry a checksum,
+ * a frame torn by a crash is cut off when loading. Projects saved before the project file existed have a PNG
+ * snapshot (autosave_<id>.png) instead, it is read once and replaced by a project file on the first compaction.
+ */
+public class AutosaveJournal {
+    private static final String SNAPSHOT_PREFIX = "autosave_";
+    private static final String SNAPSHOT_SUFFIX = ".png";
+    private static final String JOURNAL_NAME = "autosave.journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x4b524a31; // "KRJ1"
+    private static final int FRAME_MAGIC = 0x46524d45; // "FRME"
+    private static final int HEADER_BYTES = 20; // magic, base id, width, height
+    private static final int FRAME_OVERHEAD = 12; // magic, length, checksum
+
+    private static final long MIN_COMPACT_BYTES = 4L * 1024 * 1024;
+    private static final long COMPACT_INTERVAL = 10 * 60 * 1000; // ms
+
+    private static final int T = CanvasRaster.TILE_SIZE;
+
+    private final File directory;
+    private final int background;
+
+    // Tiles reported since the last save
+    private final Object dirtyLock = new Object();
+    private BitSet dirtyTiles = new BitSet();
+    private boolean allDirty = true; // nothing was written yet
+
+    // State of the files, only used while holding the journal's lock
+    private ProjectFile project; // null until the project file is opened or created
+    private long baseId = -1; // generation of the project file the journal applies to, -1 until there is one
+    private long baseBytes;
+    private long journalBytes;
+    private long lastCompaction;
+    private int width;
+    private int height;
+    private long[] tileHashes; // hash of the pixels last written for each tile
+    private BitSet journaledTiles = new BitSet(); // tiles written to the journal since the last compaction
+    private Map<String, String> properties = new LinkedHashMap<>(); // tool state as last written
+
+    private final int[] scratch = new int[T * T];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    // Supplies a frozen copy of the canvas, see Canvas.snapshot()
+    public interface SnapshotSource {
+        BufferedImage take() throws InterruptedException;
+    }
+
+    public AutosaveJournal(File directory, int background) {
+        this.directory = directory;
+        this.background = background;
+    }
+
+    // --- DIRTY TRACKING ---
+
+    // Called for every change of the canvas image, from any thread
+    public void markDirty(BufferedImage image, Rectangle region) {
+        int[] tiles = CanvasRaster.getTilesIn(image, region);
+        synchronized (dirtyLock) {
+            for (int tile : tiles) dirtyTiles.set(tile);
+        }
+    }
+
+    public void markAllDirty() {
+        synchronized (dirtyLock) {
+            allDirty = true;
+        }
+    }
+
+    public boolean hasChanges() {
+        synchronized (dirtyLock) {
+            return allDirty || !dirtyTiles.isEmpty();
+        }
+    }
+
+    // --- LOADING ---
+
+    /*
+     * Open the project file, or the latest snapshot of an older project, and replay the journal on top of it.
+     * Tiles of large projects are decoded on first access, see ProjectFile.load().
+     * Returns null if the project has no autosave yet.
+     */
+    public synchronized BufferedImage load() throws IOException {
+        BufferedImage image;
+        long id;
+        long[] hashes = null;
+        File base;
+
+        File projectFile = new File(directory, ProjectFile.FILE_NAME);
+        if (projectFile.exists()) {
+            project = ProjectFile.open(projectFile);
+            image = project.load();
+            id = project.getGeneration();
+            hashes = project.getTileHashes();
+            properties = project.getProperties();
+            base = projectFile;
+        } else {
+            File snapshot = findLatestSnapshot();
+            if (snapshot == null) return null;
+
+            BufferedImage loaded = ImageIO.read(snapshot);
+            if (loaded == null) return null;
+
+            image = CanvasRaster.create(loaded.getWidth(), loaded.getHeight(), 0);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.drawImage(loaded, 0, 0, null);
+            g2d.dispose();
+            id = getSnapshotId(snapshot);
+            base = snapshot;
+        }
+
+        // A journal that doesn't belong to this base is replaced by the next save
+        BitSet replayed = new BitSet();
+        long valid = replay(new File(directory, JOURNAL_NAME), id, image, replayed);
+        if (valid >= 0) {
+            baseId = id;
+            baseBytes = base.length();
+            journalBytes = valid;
+            lastCompaction = base.lastModified();
+            journaledTiles = replayed;
+            truncateJournal(valid);
+        } else {
+            baseId = -1;
+            journaledTiles = new BitSet();
+        }
+
+        width = image.getWidth();
+        height = image.getHeight();
+        if (hashes == null) {
+            hashes = hashTiles(image);
+        } else {
+            for (int index = replayed.nextSetBit(0); index >= 0; index = replayed.nextSetBit(index + 1)) {
+                hashes[index] = CanvasRaster.hashTile(scratch, CanvasRaster.readTile(image, index, scratch));
+            }
+        }
+        tileHashes = hashes;
+        synchronized (dirtyLock) {
+            dirtyTiles = new BitSet();
+            allDirty = false;
+        }
+        return image;
+    }
+
+    // Tool state saved with the project, empty if there is none
+    public synchronized Map<String, String> getProperties() {
+        return new LinkedHashMap<>(properties);
+    }
+
+    // Apply the valid frames of the journal to image, returns the length of the valid part or -1 if it doesn't apply
+    private long replay(File journal, long id, BufferedImage image, BitSet replayed) throws IOException {
+        if (!journal.exists()) return -1;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != id) return -1;
+                if (in.readInt() != image.getWidth() || in.readInt() != image.getHeight()) return -1;
+            } catch (EOFException e) {
+                return -1;
+            }
+
+            long valid = HEADER_BYTES;
+            try {
+                while (in.readInt() == FRAME_MAGIC) {
+                    int length = in.readInt();
+                    if (length < 4 || length > journal.length() - valid) break;
+
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    if (in.readInt() != checksum(body)) break;
+
+                    applyFrame(body, image, replayed);
+                    valid += FRAME_OVERHEAD + length;
+                }
+            } catch (EOFException e) {
+                // Torn frame at the end, keep what came before it
+            }
+            return valid;
+        }
+    }
+
+    private void applyFrame(byte[] body, BufferedImage image, BitSet replayed) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        int tileCount = CanvasRaster.getTileCount(image);
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            int length = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (index < 0 || index >= tileCount || length < 1 || length > T * T) throw new IOException("Corrupt autosave journal");
+
+            int[] pixels = inflate(data, length);
+            CanvasRaster.writeTile(image, index, pixels, length);
+            replayed.set(index);
+        }
+
+        // Frames written before the tool state was journaled end here
+        if (in.available() > 0 && in.readBoolean()) properties = readProperties(in);
+    }
+
+    private void truncateJournal(long length) throws IOException {
+        File journal = new File(directory, JOURNAL_NAME);
+        if (journal.length() <= length) return;
+
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    // --- SAVING ---
+
+    /*
+     * Persist the changes made since the last save, along with the tool state.
+     * The dirty tiles are taken before the snapshot: a change reported in between is in the snapshot
+     * and gets checked again next time, while a change after the snapshot is never lost.
+     */
+    public synchronized void save(SnapshotSource source, Map<String, String> properties) throws IOException, InterruptedException {
+        BitSet dirty;
+        boolean all;
+        synchronized (dirtyLock) {
+            dirty = dirtyTiles;
+            all = allDirty;
+            dirtyTiles = new BitSet();
+            allDirty = false;
+        }
+
+        try {
+            BufferedImage image = source.take();
+            if (all) dirty.set(0, CanvasRaster.getTileCount(image));
+            if (needsCompaction(image)) {
+                BitSet candidates = (BitSet) dirty.clone();
+                candidates.or(journaledTiles);
+                compact(image, candidates, properties);
+            } else {
+                appendFrame(image, dirty, properties);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // Nothing was written for these tiles, keep them for the next save
+            synchronized (dirtyLock) {
+                dirtyTiles.or(dirty);
+                allDirty |= all;
+            }
+            throw e;
+        }
+    }
+
+    private boolean needsCompaction(BufferedImage image) {
+        if (baseId < 0 || image.getWidth() != width || image.getHeight() != height) return true;
+        if (journalBytes > Math.max(MIN_COMPACT_BYTES, baseBytes)) return true;
+        return journalBytes > HEADER_BYTES && System.currentTimeMillis() - lastCompaction > COMPACT_INTERVAL;
+    }
+
+    private void appendFrame(BufferedImage image, BitSet dirty, Map<String, String> properties) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        List<long[]> written = new ArrayList<>(); // index and hash of each tile in the frame
+
+        out.writeInt(0); // tile count, patched below
+        for (int index = dirty.nextSetBit(0); index >= 0 && index < tileHashes.length; index = dirty.nextSetBit(index + 1)) {
+            int length = CanvasRaster.readTile(image, index, scratch);
+            long hash = CanvasRaster.hashTile(scratch, length);
+            if (hash == tileHashes[index]) continue;
+
+            byte[] data = deflate(scratch, length);
+            out.writeInt(index);
+            out.writeInt(length);
+            out.writeInt(data.length);
+            out.write(data);
+            written.add(new long[] {index, hash});
+        }
+        boolean propertiesChanged = !properties.equals(this.properties);
+        if (written.isEmpty() && !propertiesChanged) return;
+
+        out.writeBoolean(propertiesChanged);
+        if (propertiesChanged) writeProperties(out, properties);
+
+        byte[] frame = body.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, written.size());
+
+        ByteBuffer record = ByteBuffer.allocate(FRAME_OVERHEAD + frame.length);
+        record.putInt(FRAME_MAGIC).putInt(frame.length).put(frame).putInt(checksum(frame)).flip();
+        try (FileChannel channel = FileChannel.open(new File(directory, JOURNAL_NAME).toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) channel.write(record);
+            channel.force(false);
+        }
+
+        journalBytes += record.limit();
+        for (long[] tile : written) {
+            tileHashes[(int) tile[0]] = tile[1];
+            journaledTiles.set((int) tile[0]);
+        }
+        this.properties = new LinkedHashMap<>(properties);
+    }
+
+    // Write the candidate tiles that changed to the project file (all tiles for a new one) and start an empty journal for it
+    private void compact(BufferedImage copy, BitSet candidates, Map<String, String> properties) throws IOException {
+        if (!directory.exists()) directory.mkdirs();
+
+        File projectFile = new File(directory, ProjectFile.FILE_NAME);
+        if (project != null && project.getWidth() == copy.getWidth() && project.getHeight() == copy.getHeight()) {
+            try {
+                project.update(copy, candidates, properties);
+            } catch (IOException | RuntimeException e) {
+                project = null; // the index in memory may be ahead of the file, write a new one next time
+                throw e;
+            }
+        } else {
+            project = ProjectFile.create(projectFile, copy, background, properties);
+        }
+
+        long id = project.getGeneration();
+        File journal = new File(directory, JOURNAL_NAME);
+        File journalTemp = new File(directory, JOURNAL_NAME + TEMP_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(journalTemp)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeLong(id);
+            out.writeInt(copy.getWidth());
+            out.writeInt(copy.getHeight());
+            out.flush();
+            stream.getFD().sync();
+        }
+        ProjectFile.moveAtomically(journalTemp, journal);
+
+        baseId = id;
+        baseBytes = project.length();
+        journalBytes = HEADER_BYTES;
+        lastCompaction = System.currentTimeMillis();
+        width = copy.getWidth();
+        height = copy.getHeight();
+        tileHashes = project.getTileHashes();
+        journaledTiles = new BitSet();
+        this.properties = new LinkedHashMap<>(properties);
+
+        deleteTemporaryFiles();
+    }
+
+    // --- FILES ---
+
+    private File[] listSnapshots() {
+        File[] files = directory.listFiles((dir, name) -> getSnapshotId(new File(dir, name)) >= 0);
+        if (files == null) return new File[0];
+
+        Arrays.sort(files, Comparator.comparingLong(AutosaveJournal::getSnapshotId).reversed());
+        return files;
+    }
+
+    private File findLatestSnapshot() {
+        File[] snapshots = listSnapshots();
+        return snapshots.length > 0 ? snapshots[0] : null;
+    }
+
+    // Drop temporary files left by an interrupted save
+    private void deleteTemporaryFiles() {
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (leftovers != null) {
+            for (File file : leftovers) file.delete();
+        }
+    }
+
+    // Id of an autosave_<id>.png file, -1 for other files
+    private static long getSnapshotId(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_SUFFIX)) return -1;
+
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // --- ENCODING ---
+
+    private long[] hashTiles(BufferedImage image) {
+        long[] hashes = new long[CanvasRaster.getTileCount(image)];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = CanvasRaster.hashTile(scratch, CanvasRaster.readTile(image, i, scratch));
+        }
+        return hashes;
+    }
+
+    private static void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+        out.writeInt(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            out.writeUTF(property.getKey());
+            out.writeUTF(property.getValue());
+        }
+    }
+
+    private static Map<String, String> readProperties(DataInputStream in) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            properties.put(in.readUTF(), in.readUTF());
+        }
+        return properties;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private byte[] deflate(int[] pixels, int length) {
+        ByteBuffer bytes = ByteBuffer.allocate(length * 4);
+        bytes.asIntBuffer().put(pixels, 0, length);
+
+        deflater.reset();
+        deflater.setInput(bytes.array());
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private int[] inflate(byte[] data, int length) throws IOException {
+        byte[] bytes = new byte[length * 4];
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int read = 0;
+            while (read < bytes.length && !inflater.finished()) {
+                int count = inflater.inflate(bytes, read, bytes.length - read);
+                if (count == 0 && inflater.needsInput()) break;
+                read += count;
+            }
+            if (read != bytes.length) throw new IOException("Corrupt autosave journal");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt autosave journal", e);
+        }
+
+        int[] pixels = new int[length];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        return pixels;
+    }
+}
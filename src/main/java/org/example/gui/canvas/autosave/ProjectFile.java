@@ -0,0 +1,610 @@
+package org.example.gui.canvas.autosave;
+
+import org.example.app.file.PngEncoder;
+import org.example.gui.canvas.raster.CanvasRaster;
+import org.example.gui.canvas.raster.TiledDataBuffer;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * ProjectFile is the native .kraska project container.
+ * It stores the canvas dimensions, the background color, the tool state, a thumbnail and the canvas pixels as
+ * tiles, each deflated on its own so it can be read and replaced independently. The index of the tiles is
+ * written after them, at the end of the file, and the header at the start points to the current index.
+ *
+ * Saving appends the tiles that changed and a new index, then switches the header over to it: there are two
+ * header slots written in turn, so the previous state stays valid until the new header is on disk.
+ * The space of the replaced tiles is reclaimed by rewriting the file once it is mostly garbage.
+ * Opening maps the file and decodes tiles when they are first read, see TiledDataBuffer.
+ */
+public class ProjectFile {
+    public static final String FILE_NAME = "project.kraska";
+
+    private static final int MAGIC = 0x4b52534b; // "KRSK"
+    private static final int VERSION = 1;
+    private static final int SLOT_BYTES = 64; // one header slot, two at the start of the file
+    private static final int HEADER_BYTES = 2 * SLOT_BYTES;
+    private static final int INDEX_ENTRY_BYTES = 20; // offset, size and hash of a tile
+
+    private static final long MIN_REWRITE_BYTES = 16L * 1024 * 1024;
+    private static final long SEGMENT_BYTES = 1L << 30; // files are mapped in overlapping segments of this size
+    private static final long SEGMENT_OVERLAP = 1L << 20; // larger than any tile chunk
+    private static final int BATCH_TILES = 256; // tiles deflated in parallel before being written
+    private static final int THUMBNAIL_SIZE = 320;
+    private static final int THUMBNAIL_SAMPLES = 4; // per axis, averaged into each thumbnail pixel
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int T = CanvasRaster.TILE_SIZE;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final File file;
+    private long generation;
+    private int width;
+    private int height;
+    private int background;
+    private int slot; // header slot holding the current state
+
+    // Index, offsets[i] is -1 for a uniform tile whose color is in sizes[i]
+    private long[] offsets;
+    private int[] sizes;
+    private long[] hashes; // CanvasRaster.hashTile of the tile as it was read when saved
+    private long thumbnailOffset;
+    private int thumbnailLength;
+    private Map<String, String> properties = new LinkedHashMap<>();
+
+    private long end; // where the next chunk is appended
+    private long liveBytes; // bytes of the header, the current index and what it points to
+    private int indexLength;
+    private BufferedImage thumbnail; // decoded on the first update
+
+    public record Header(int width, int height, int background, long generation) {}
+
+    private ProjectFile(File file) {
+        this.file = file;
+    }
+
+    // --- OPENING ---
+
+    public static ProjectFile open(File file) throws IOException {
+        ProjectFile project = new ProjectFile(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            project.readIndex(channel);
+            project.end = channel.size();
+        }
+        return project;
+    }
+
+    public static Header readHeader(File file) throws IOException {
+        ProjectFile project = open(file);
+        return new Header(project.width, project.height, project.background, project.generation);
+    }
+
+    // Thumbnail of the canvas as of the last save, null if there is none
+    public static BufferedImage readThumbnail(File file) throws IOException {
+        ProjectFile project = open(file);
+        if (project.thumbnailLength == 0) return null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return project.readThumbnail(channel);
+        }
+    }
+
+    /*
+     * Canvas image backed by the file. Tiles of sparse images are decoded when first accessed (painting the
+     * viewport decodes what is visible), the canvas decodes the rest in the background. Dense images are small enough
+     * to be decoded right away, on all cores.
+     */
+    public BufferedImage load() throws IOException {
+        TileReader reader = new TileReader(map(), offsets.clone(), sizes.clone(), hashes.clone());
+        BufferedImage image = CanvasRaster.create(width, height, 0);
+
+        if (!CanvasRaster.isSparse(image)) {
+            IntStream.range(0, offsets.length).parallel().forEach(i -> {
+                if (offsets[i] < 0) {
+                    CanvasRaster.writeTile(image, i, new int[] {sizes[i]}, 1);
+                } else {
+                    int[] pixels = reader.decode(i);
+                    CanvasRaster.writeTile(image, i, pixels, pixels.length);
+                }
+            });
+            return image;
+        }
+
+        TiledDataBuffer data = CanvasRaster.getTiledBuffer(image);
+        BitSet pending = new BitSet(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0) {
+                data.fillTile(i, sizes[i]);
+            } else {
+                pending.set(i);
+            }
+        }
+        data.setTileSource(reader, pending);
+        return image;
+    }
+
+    private void readIndex(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, 0);
+
+        // The valid slot with the latest generation is the current one
+        long best = -1;
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer slot = header.slice(i * SLOT_BYTES, SLOT_BYTES);
+            if (slot.getInt(0) != MAGIC || slot.getInt(48) != checksum(slot, 48)) continue;
+            if (slot.getInt(4) > VERSION || slot.getInt(24) != T) throw new IOException("Unsupported project file version");
+
+            long generation = slot.getLong(8);
+            if (generation <= best) continue;
+
+            ByteBuffer index = ByteBuffer.allocate(slot.getInt(40));
+            long indexOffset = slot.getLong(32);
+            if (indexOffset + index.capacity() > channel.size()) continue;
+            readFully(channel, index, indexOffset);
+            if (checksum(index, index.capacity()) != slot.getInt(44)) continue;
+
+            best = generation;
+            this.slot = i;
+            this.generation = generation;
+            width = slot.getInt(16);
+            height = slot.getInt(20);
+            background = slot.getInt(28);
+            readIndex(index.array());
+        }
+        if (best < 0) throw new IOException("Corrupt project file");
+    }
+
+    private void readIndex(byte[] index) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        int count = in.readInt();
+        if (count != ((width + T - 1) / T) * ((height + T - 1) / T)) throw new IOException("Corrupt project file");
+
+        offsets = new long[count];
+        sizes = new int[count];
+        hashes = new long[count];
+        indexLength = index.length;
+        liveBytes = HEADER_BYTES + indexLength;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = in.readLong();
+            sizes[i] = in.readInt();
+            hashes[i] = in.readLong();
+            if (offsets[i] >= 0) liveBytes += sizes[i];
+        }
+
+        thumbnailOffset = in.readLong();
+        thumbnailLength = in.readInt();
+        liveBytes += thumbnailLength;
+
+        properties = new LinkedHashMap<>();
+        int propertyCount = in.readInt();
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put(in.readUTF(), in.readUTF());
+        }
+    }
+
+    private ByteBuffer[] map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long step = SEGMENT_BYTES - SEGMENT_OVERLAP;
+            int count = size <= SEGMENT_BYTES ? 1 : (int) ((size - SEGMENT_BYTES + step - 1) / step) + 1;
+
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * step;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+            }
+            return segments; // the mapping outlives the channel
+        }
+    }
+
+    // Decodes the tiles of one opened version of the file, later saves don't affect it
+    private class TileReader implements TiledDataBuffer.TileSource {
+        private final ByteBuffer[] segments;
+        private final long[] offsets;
+        private final int[] sizes;
+        private final long[] hashes;
+
+        TileReader(ByteBuffer[] segments, long[] offsets, int[] sizes, long[] hashes) {
+            this.segments = segments;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.hashes = hashes;
+        }
+
+        @Override
+        public int[] decode(int index) {
+            int length = getTileLength(index);
+            long step = SEGMENT_BYTES - SEGMENT_OVERLAP;
+            int segment = (int) (offsets[index] / step);
+            ByteBuffer chunk = segments[segment].slice((int) (offsets[index] - segment * step), sizes[index]);
+
+            try {
+                int[] pixels = inflate(chunk, length);
+                if (CanvasRaster.hashTile(pixels, length) != hashes[index]) throw new IOException("Tile checksum mismatch");
+                return pixels;
+            } catch (IOException | RuntimeException e) {
+                // Keep going with the rest of the document, the damaged tile comes back transparent
+                System.err.println("Failed to read tile " + index + " of " + file.getAbsolutePath());
+                e.printStackTrace();
+                return new int[length];
+            }
+        }
+    }
+
+    // --- SAVING ---
+
+    // Write the whole image as a new project file, replacing the file if it exists
+    public static ProjectFile create(File file, BufferedImage image, int background, Map<String, String> properties) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        ProjectFile project = new ProjectFile(temp);
+        project.width = image.getWidth();
+        project.height = image.getHeight();
+        project.background = background;
+        project.generation = System.currentTimeMillis();
+        project.slot = 1; // the first commit goes to slot 0
+
+        int count = CanvasRaster.getTileCount(image);
+        project.offsets = new long[count];
+        Arrays.fill(project.offsets, -1);
+        project.sizes = new int[count];
+        project.hashes = new long[count];
+        project.end = HEADER_BYTES;
+        project.liveBytes = HEADER_BYTES;
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            project.appendTiles(channel, image, IntStream.range(0, count).toArray(), false);
+            project.renderThumbnail(image, null);
+            project.commit(channel, properties);
+        }
+
+        moveAtomically(temp, file);
+        ProjectFile result = new ProjectFile(file);
+        result.copyState(project);
+        return result;
+    }
+
+    /*
+     * Save the image, only the candidate tiles are read and the ones that differ from the file are appended.
+     * The image must have the dimensions of the file.
+     */
+    public void update(BufferedImage image, BitSet candidates, Map<String, String> properties) throws IOException {
+        if (end - liveBytes > Math.max(MIN_REWRITE_BYTES, liveBytes)) {
+            try {
+                copyState(create(file, image, background, properties));
+                return;
+            } catch (IOException e) {
+                // Some systems refuse to replace a file that is still mapped by a document being loaded, append for now
+                e.printStackTrace();
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            BitSet changed = appendTiles(channel, image, candidates.stream().toArray(), true);
+            if (!changed.isEmpty()) {
+                if (thumbnail == null && thumbnailLength > 0) {
+                    try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        thumbnail = toArgb(readThumbnail(reader));
+                    }
+                }
+                renderThumbnail(image, changed);
+            }
+            generation = Math.max(System.currentTimeMillis(), generation + 1);
+            commit(channel, properties);
+        }
+    }
+
+    private record EncodedTile(int index, long hash, byte[] data, int color) {}
+
+    // Append the tiles at the end of the file, skipping the unchanged ones if asked, and return the written tiles
+    private BitSet appendTiles(FileChannel channel, BufferedImage image, int[] indices, boolean skipUnchanged) throws IOException {
+        BitSet changed = new BitSet();
+        for (int start = 0; start < indices.length; start += BATCH_TILES) {
+            EncodedTile[] batch = IntStream.range(start, Math.min(indices.length, start + BATCH_TILES)).parallel()
+                    .mapToObj(i -> encodeTile(image, indices[i], skipUnchanged))
+                    .toArray(EncodedTile[]::new);
+
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            for (EncodedTile tile : batch) {
+                if (tile == null) continue;
+
+                int i = tile.index;
+                if (offsets[i] >= 0) liveBytes -= sizes[i];
+                if (tile.data == null) {
+                    offsets[i] = -1;
+                    sizes[i] = tile.color;
+                } else {
+                    offsets[i] = end + chunks.size();
+                    sizes[i] = tile.data.length;
+                    liveBytes += tile.data.length;
+                    chunks.write(tile.data);
+                }
+                hashes[i] = tile.hash;
+                changed.set(i);
+            }
+
+            writeFully(channel, ByteBuffer.wrap(chunks.toByteArray()), end);
+            end += chunks.size();
+        }
+        return changed;
+    }
+
+    private EncodedTile encodeTile(BufferedImage image, int index, boolean skipUnchanged) {
+        int[] pixels = new int[T * T];
+        int length = CanvasRaster.readTile(image, index, pixels);
+        long hash = CanvasRaster.hashTile(pixels, length);
+        if (skipUnchanged && hash == hashes[index]) return null;
+
+        if (length == 1 && getTileLength(index) > 1) return new EncodedTile(index, hash, null, pixels[0]);
+        return new EncodedTile(index, hash, deflate(pixels, length), 0);
+    }
+
+    // Append the thumbnail and the index, then point the other header slot to them
+    private void commit(FileChannel channel, Map<String, String> properties) throws IOException {
+        if (thumbnail != null) {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            PngEncoder.write(thumbnail, png, PngEncoder.Level.FAST);
+            liveBytes += png.size() - thumbnailLength;
+            thumbnailOffset = end;
+            thumbnailLength = png.size();
+            writeFully(channel, ByteBuffer.wrap(png.toByteArray()), end);
+            end += png.size();
+        }
+
+        this.properties = new LinkedHashMap<>(properties);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(offsets.length * INDEX_ENTRY_BYTES + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(sizes[i]);
+            out.writeLong(hashes[i]);
+        }
+        out.writeLong(thumbnailOffset);
+        out.writeInt(thumbnailLength);
+        out.writeInt(this.properties.size());
+        for (Map.Entry<String, String> property : this.properties.entrySet()) {
+            out.writeUTF(property.getKey());
+            out.writeUTF(property.getValue());
+        }
+
+        ByteBuffer index = ByteBuffer.wrap(bytes.toByteArray());
+        long indexOffset = end;
+        writeFully(channel, index, indexOffset);
+        channel.force(false); // the tiles and the index are on disk before the header points to them
+
+        ByteBuffer header = ByteBuffer.allocate(SLOT_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation)
+                .putInt(width).putInt(height).putInt(T).putInt(background)
+                .putLong(indexOffset).putInt(index.capacity()).putInt(checksum(index, index.capacity()));
+        header.putInt(checksum(header, 48));
+
+        int next = 1 - slot;
+        writeFully(channel, header.rewind(), (long) next * SLOT_BYTES);
+        channel.force(false);
+
+        slot = next;
+        end = indexOffset + index.capacity();
+        liveBytes += index.capacity() - indexLength;
+        indexLength = index.capacity();
+    }
+
+    private void copyState(ProjectFile other) {
+        generation = other.generation;
+        width = other.width;
+        height = other.height;
+        background = other.background;
+        slot = other.slot;
+        offsets = other.offsets;
+        sizes = other.sizes;
+        hashes = other.hashes;
+        thumbnailOffset = other.thumbnailOffset;
+        thumbnailLength = other.thumbnailLength;
+        properties = other.properties;
+        end = other.end;
+        liveBytes = other.liveBytes;
+        indexLength = other.indexLength;
+        thumbnail = other.thumbnail;
+    }
+
+    // --- THUMBNAIL ---
+
+    // Redraw the thumbnail pixels covering the changed tiles (all of them if changed is null)
+    private void renderThumbnail(BufferedImage image, BitSet changed) {
+        double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(width, height));
+        int thumbnailWidth = Math.max(1, (int) Math.round(width * scale));
+        int thumbnailHeight = Math.max(1, (int) Math.round(height * scale));
+        if (thumbnail == null || thumbnail.getWidth() != thumbnailWidth || thumbnail.getHeight() != thumbnailHeight) {
+            thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_ARGB);
+            changed = null;
+        }
+
+        int columns = CanvasRaster.getColumns(image);
+        for (int ty = 0; ty < thumbnailHeight; ty++) {
+            int y0 = (int) ((long) ty * height / thumbnailHeight);
+            int y1 = Math.max(y0 + 1, (int) ((long) (ty + 1) * height / thumbnailHeight));
+            for (int tx = 0; tx < thumbnailWidth; tx++) {
+                int x0 = (int) ((long) tx * width / thumbnailWidth);
+                int x1 = Math.max(x0 + 1, (int) ((long) (tx + 1) * width / thumbnailWidth));
+                if (changed != null && !touchesTiles(changed, columns, x0, y0, x1, y1)) continue;
+
+                thumbnail.setRGB(tx, ty, averageCell(image, x0, y0, x1, y1));
+            }
+        }
+    }
+
+    private static boolean touchesTiles(BitSet tiles, int columns, int x0, int y0, int x1, int y1) {
+        for (int row = y0 / T; row <= (y1 - 1) / T; row++) {
+            for (int column = x0 / T; column <= (x1 - 1) / T; column++) {
+                if (tiles.get(row * columns + column)) return true;
+            }
+        }
+        return false;
+    }
+
+    // Alpha weighted average of a few samples spread over the cell
+    private static int averageCell(BufferedImage image, int x0, int y0, int x1, int y1) {
+        long a = 0, r = 0, g = 0, b = 0;
+        int samples = 0;
+        for (int sy = 0; sy < THUMBNAIL_SAMPLES; sy++) {
+            int y = y0 + (2 * sy + 1) * (y1 - y0) / (2 * THUMBNAIL_SAMPLES);
+            for (int sx = 0; sx < THUMBNAIL_SAMPLES; sx++) {
+                int x = x0 + (2 * sx + 1) * (x1 - x0) / (2 * THUMBNAIL_SAMPLES);
+                int pixel = CanvasRaster.getPixel(image, x, y);
+                int alpha = pixel >>> 24;
+                a += alpha;
+                r += ((pixel >> 16) & 0xff) * alpha;
+                g += ((pixel >> 8) & 0xff) * alpha;
+                b += (pixel & 0xff) * alpha;
+                samples++;
+            }
+        }
+        if (a == 0) return 0;
+        return (int) (a / samples) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+    }
+
+    private BufferedImage readThumbnail(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(thumbnailLength);
+        readFully(channel, bytes, thumbnailOffset);
+        return ImageIO.read(new ByteArrayInputStream(bytes.array()));
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_INT_ARGB) return image;
+
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return converted;
+    }
+
+    // --- ENCODING ---
+
+    private int getTileLength(int index) {
+        int columns = (width + T - 1) / T;
+        int tileWidth = Math.min(T, width - (index % columns) * T);
+        int tileHeight = Math.min(T, height - (index / columns) * T);
+        return tileWidth * tileHeight;
+    }
+
+    private static byte[] deflate(int[] pixels, int length) {
+        ByteBuffer bytes = ByteBuffer.allocate(length * 4);
+        bytes.asIntBuffer().put(pixels, 0, length);
+
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(bytes.array());
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] inflate(ByteBuffer data, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length * 4);
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            while (bytes.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(bytes) == 0 && inflater.needsInput()) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt tile", e);
+        }
+        if (bytes.hasRemaining()) throw new IOException("Truncated tile");
+
+        int[] pixels = new int[length];
+        IntBuffer ints = bytes.flip().asIntBuffer();
+        ints.get(pixels);
+        return pixels;
+    }
+
+    private static int checksum(ByteBuffer data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(0, length));
+        return (int) crc.getValue();
+    }
+
+    // --- FILES ---
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // --- GETTERS ---
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBackground() {
+        return background;
+    }
+
+    public long length() {
+        return end;
+    }
+
+    public Map<String, String> getProperties() {
+        return new LinkedHashMap<>(properties);
+    }
+
+    public long[] getTileHashes() {
+        return hashes.clone();
+    }
+}
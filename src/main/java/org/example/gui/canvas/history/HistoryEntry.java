@@ -0,0 +1,46 @@
+package org.example.gui.canvas.history;
+
+/*
+ * HistoryEntry is a single undoable step recorded by TileHistory.
+ * It holds the before and after pixels of the tiles that changed during the step.
+ * Tiles are shared with the neighbouring entries and the committed state, their pixels never change.
+ */
+class HistoryEntry {
+    final int beforeWidth;
+    final int beforeHeight;
+    final int afterWidth;
+    final int afterHeight;
+
+    // Indices of the changed tiles, null if the step replaced the whole tile grid (e.g. resize)
+    final int[] indices;
+    final StoredTile[] before;
+    final StoredTile[] after;
+
+    // Maintenance progress, only used by the history worker so every pass skips the entries already done
+    boolean compressed;
+    boolean spilled;
+
+    HistoryEntry(int beforeWidth, int beforeHeight, int afterWidth, int afterHeight,
+                 int[] indices, StoredTile[] before, StoredTile[] after) {
+        this.beforeWidth = beforeWidth;
+        this.beforeHeight = beforeHeight;
+        this.afterWidth = afterWidth;
+        this.afterHeight = afterHeight;
+        this.indices = indices;
+        this.before = before;
+        this.after = after;
+
+        for (StoredTile tile : before) tile.retainInEntry();
+        for (StoredTile tile : after) tile.retainInEntry();
+    }
+
+    // Called when the entry leaves the history
+    void release() {
+        for (StoredTile tile : before) tile.releaseFromEntry();
+        for (StoredTile tile : after) tile.releaseFromEntry();
+    }
+
+    boolean isResize() {
+        return indices == null;
+    }
+}
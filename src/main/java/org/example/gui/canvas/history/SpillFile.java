@@ -0,0 +1,146 @@
+package org.example.gui.canvas.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/*
+ * SpillFile is a memory-mapped scratch file that stores compressed history tiles that don't fit the heap budget.
+ * The file is split into fixed-size segments that are filled in order and recycled once all their tiles are freed.
+ * Since the oldest tiles are spilled and dropped first, segments empty out in roughly the same order.
+ */
+class SpillFile {
+    private static final int SEGMENT_SIZE = 32 * 1024 * 1024;
+
+    private final File file;
+    private final int maxSegments;
+
+    private FileChannel channel;
+    private boolean failed = false;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<Segment> freeSegments = new ArrayDeque<>();
+    private Segment current;
+
+    SpillFile(File file, long maxBytes) {
+        this.file = file;
+        this.maxSegments = (int) Math.max(1, maxBytes / SEGMENT_SIZE);
+    }
+
+    // Append data to the file, returns null if the file is full or can't be used
+    synchronized Slot write(byte[] data) {
+        if (current == null || current.used + data.length > SEGMENT_SIZE) {
+            Segment next = nextSegment();
+            if (next == null) return null;
+            if (current != null && current.live == 0) freeSegments.add(current);
+            current = next;
+        }
+
+        Slot slot = new Slot(current, current.used, data.length);
+        current.buffer.put(current.used, data);
+        current.used += data.length;
+        current.live++;
+        return slot;
+    }
+
+    synchronized void close() {
+        segments.clear();
+        freeSegments.clear();
+        current = null;
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+        file.delete();
+    }
+
+    private Segment nextSegment() {
+        Segment segment = freeSegments.poll();
+        if (segment != null) {
+            segment.used = 0;
+            return segment;
+        }
+        if (segments.size() >= maxSegments || !open()) return null;
+
+        try {
+            long position = (long) segments.size() * SEGMENT_SIZE;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+            segment = new Segment(buffer);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            return null;
+        }
+    }
+
+    private boolean open() {
+        if (channel != null) return true;
+        if (failed) return false;
+
+        try {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) parent.mkdirs();
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            file.deleteOnExit();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            return false;
+        }
+    }
+
+    private synchronized byte[] read(Slot slot) {
+        byte[] data = new byte[slot.length];
+        slot.segment.buffer.get(slot.offset, data);
+        return data;
+    }
+
+    private synchronized void free(Slot slot) {
+        Segment segment = slot.segment;
+        if (--segment.live == 0 && segment != current && segments.contains(segment)) {
+            freeSegments.add(segment);
+        }
+    }
+
+    private static class Segment {
+        final MappedByteBuffer buffer;
+        int used = 0;
+        int live = 0;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    // Slot is the location of one spilled tile
+    class Slot {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Slot(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        byte[] read() {
+            return SpillFile.this.read(this);
+        }
+
+        void free() {
+            SpillFile.this.free(this);
+        }
+    }
+}
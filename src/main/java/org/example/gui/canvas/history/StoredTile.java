@@ -0,0 +1,152 @@
+package org.example.gui.canvas.history;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * StoredTile holds the pixels of one tile in the history.
+ * A tile starts raw (int[]), can be deflated in the background and finally spilled to the SpillFile.
+ * The pixels themselves never change, only the way they are stored.
+ * The heap bytes of a tile are added to the counter of its history while a HistoryEntry refers to it, tiles only
+ * held by the committed state are not counted since dropping entries cannot free them.
+ */
+class StoredTile {
+    private final int length; // number of pixels
+    private final AtomicLong heapBytes; // shared by the tiles of one history
+    private int[] pixels;
+    private byte[] compressed;
+    private SpillFile.Slot slot;
+    private int references = 0;
+    private int entries = 0; // references from history entries
+    private boolean released = false;
+
+    StoredTile(int[] pixels, AtomicLong heapBytes) {
+        this.length = pixels.length;
+        this.pixels = pixels;
+        this.heapBytes = heapBytes;
+    }
+
+    synchronized int[] getPixels() {
+        if (pixels != null) return pixels;
+        byte[] data = compressed != null ? compressed : slot.read();
+        return inflate(data, length);
+    }
+
+    synchronized long getHeapBytes() {
+        if (pixels != null) return pixels.length * 4L;
+        if (compressed != null) return compressed.length;
+        return 0;
+    }
+
+    synchronized boolean isRaw() {
+        return pixels != null;
+    }
+
+    synchronized boolean isCompressed() {
+        return compressed != null;
+    }
+
+    // --- STORAGE TRANSITIONS ---
+
+    // Deflate the raw pixels, runs on the history worker thread
+    void compress(Deflater deflater) {
+        int[] raw;
+        synchronized (this) {
+            if (pixels == null || released) return;
+            raw = pixels;
+        }
+
+        byte[] data = deflate(deflater, raw);
+
+        synchronized (this) {
+            if (pixels == raw && !released) {
+                compressed = data;
+                pixels = null;
+                if (entries > 0) heapBytes.addAndGet(data.length - raw.length * 4L);
+            }
+        }
+    }
+
+    // Move the compressed pixels to the spill file, returns false if the file is full
+    synchronized boolean spill(SpillFile file) {
+        if (compressed == null || released) return true;
+
+        SpillFile.Slot newSlot = file.write(compressed);
+        if (newSlot == null) return false;
+
+        slot = newSlot;
+        if (entries > 0) heapBytes.addAndGet(-compressed.length);
+        compressed = null;
+        return true;
+    }
+
+    synchronized void retain() {
+        references++;
+    }
+
+    synchronized void retainInEntry() {
+        if (entries++ == 0) heapBytes.addAndGet(getHeapBytes());
+        retain();
+    }
+
+    synchronized void releaseFromEntry() {
+        if (--entries == 0) heapBytes.addAndGet(-getHeapBytes());
+        release();
+    }
+
+    // Drop one reference, the tile frees its pixels once nothing points to it anymore
+    synchronized void release() {
+        if (--references > 0) return;
+
+        released = true;
+        pixels = null;
+        compressed = null;
+        if (slot != null) {
+            slot.free();
+            slot = null;
+        }
+    }
+
+    // --- CODEC ---
+
+    private static byte[] deflate(Deflater deflater, int[] raw) {
+        ByteBuffer input = ByteBuffer.allocate(raw.length * 4);
+        input.asIntBuffer().put(raw);
+
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(raw.length);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            output.write(chunk, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    private static int[] inflate(byte[] data, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteBuffer output = ByteBuffer.allocate(length * 4);
+            while (output.hasRemaining() && !inflater.finished()) {
+                inflater.inflate(output);
+            }
+            output.flip();
+
+            int[] result = new int[length];
+            output.asIntBuffer().get(result);
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted history tile", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.example.gui.canvas.history;
+
+import org.example.gui.canvas.raster.CanvasRaster;
+import org.example.gui.canvas.raster.TiledDataBuffer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+
+/*
+ * TileHistory is the undo/redo engine of the canvas.
+ * It uses the tile grid of CanvasRaster. The canvas reports the tiles it changes (markDirty), on each checkpoint
+ * only those are compared with the committed state and the ones that differ are stored in a HistoryEntry,
+ * so the cost of a checkpoint and the memory both scale with the edited area instead of the canvas size.
+ *
+ * The committed state of a sparse canvas is a copy-on-write snapshot of it: it shares the tile arrays of the
+ * canvas, a tile only gets a second array once it is painted, and that array is the pre-image the entry keeps.
+ * Pending tiles of a lazily opened project stay pending in the snapshot. Dense canvases (at most
+ * CanvasRaster.SPARSE_THRESHOLD pixels) keep a private copy instead. Stored tiles are immutable and shared
+ * between the entries and the committed state.
+ *
+ * The history is kept under a heap budget by a background worker:
+ * entries older than the most recent few are deflated, past half of the budget the recent ones are deflated too
+ * and the oldest are spilled to a memory-mapped scratch file, past the full budget the oldest entries are dropped.
+ * The heap usage is a running counter, so a pass only touches the entries it still has work for.
+ */
+public class TileHistory {
+    // The most recent entries are kept raw so undoing them stays instant
+    private static final int RAW_ENTRIES = 8;
+
+    private final int limit;
+    private final long budgetBytes;
+    private final SpillFile spillFile;
+
+    private int width;
+    private int height;
+    private BufferedImage committed; // pixels as of the last checkpoint, null until the first one
+    private StoredTile[] handles; // stored tile of each committed tile, null until the tile first changes
+    private final int[] scratch = new int[CanvasRaster.TILE_SIZE * CanvasRaster.TILE_SIZE];
+
+    // Tiles reported since the last checkpoint, from the EDT and the stroke thread
+    private final Object dirtyLock = new Object();
+    private BitSet dirtyTiles = new BitSet();
+    private boolean allDirty;
+
+    private final Deque<HistoryEntry> undoStack = new ArrayDeque<>();
+    private final Deque<HistoryEntry> redoStack = new ArrayDeque<>();
+
+    // Background maintenance (compression, spilling and budget enforcement)
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kraska-history");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+    private final AtomicLong heapBytes = new AtomicLong(); // heap of the tiles in entries, kept up to date by StoredTile
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); // only used by the worker
+
+    public TileHistory(int limit) {
+        this(limit, Long.MAX_VALUE, null, 0);
+    }
+
+    /*
+     * limit: maximum number of undo steps
+     * budgetBytes: heap ceiling for the stored tiles and the committed copy of a dense canvas
+     * spillFile: scratch file for tiles past half of the budget, null to keep everything on the heap
+     * spillBytes: maximum size of the scratch file
+     */
+    public TileHistory(int limit, long budgetBytes, File spillFile, long spillBytes) {
+        this.limit = limit;
+        this.budgetBytes = budgetBytes;
+        this.spillFile = spillFile != null ? new SpillFile(spillFile, spillBytes) : null;
+    }
+
+    // --- DIRTY TRACKING ---
+
+    // Called for every change of the canvas image, from any thread
+    public void markDirty(BufferedImage image, Rectangle region) {
+        int[] tiles = CanvasRaster.getTilesIn(image, region);
+        synchronized (dirtyLock) {
+            for (int tile : tiles) dirtyTiles.set(tile);
+        }
+    }
+
+    public void markAllDirty() {
+        synchronized (dirtyLock) {
+            allDirty = true;
+        }
+    }
+
+    // --- HISTORY ---
+
+    // Drop the whole history and take the given image as the committed state
+    public synchronized void reset(BufferedImage image) {
+        clear(undoStack);
+        clear(redoStack);
+        releaseHandles();
+
+        commit(image);
+        handles = new StoredTile[CanvasRaster.getTileCount(image)];
+    }
+
+    /*
+     * Record every change made to the image since the last checkpoint as one undo step.
+     * Returns false if nothing changed.
+     */
+    public synchronized boolean checkpoint(BufferedImage image) {
+        if (committed == null) {
+            reset(image);
+            return false;
+        }
+
+        BitSet dirty;
+        boolean all;
+        synchronized (dirtyLock) {
+            dirty = dirtyTiles;
+            all = allDirty;
+            dirtyTiles = new BitSet();
+            allDirty = false;
+        }
+
+        HistoryEntry entry;
+        if (image.getWidth() != width || image.getHeight() != height) {
+            int beforeWidth = width;
+            int beforeHeight = height;
+            StoredTile[] before = storeAll();
+
+            commit(image);
+            handles = new StoredTile[CanvasRaster.getTileCount(image)];
+            entry = new HistoryEntry(beforeWidth, beforeHeight, width, height, null, before, storeAll());
+            for (StoredTile handle : before) handle.release();
+        } else {
+            if (all) dirty.set(0, handles.length);
+            if (dirty.isEmpty()) return false;
+
+            entry = diff(image, dirty);
+            if (entry == null) return false;
+        }
+
+        push(undoStack, entry);
+        clear(redoStack);
+        scheduleMaintenance();
+        return true;
+    }
+
+    /*
+     * Revert the last step. Pending changes are checkpointed first so they can be redone.
+     * Returns the image holding the reverted state, a new one if the step changed the canvas size.
+     * Every tile written back to the given image is passed to restored, none are if a new image is returned.
+     */
+    public synchronized BufferedImage undo(BufferedImage image, IntConsumer restored) {
+        checkpoint(image);
+        if (undoStack.isEmpty()) return image;
+
+        HistoryEntry entry = undoStack.pop();
+        push(redoStack, entry);
+        return apply(image, entry, false, restored);
+    }
+
+    public synchronized BufferedImage redo(BufferedImage image, IntConsumer restored) {
+        if (redoStack.isEmpty()) return image;
+
+        // Changes made after the undo would be lost by redoing, record them instead
+        if (checkpoint(image)) return image;
+
+        HistoryEntry entry = redoStack.pop();
+        push(undoStack, entry);
+        return apply(image, entry, true, restored);
+    }
+
+    public synchronized boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public synchronized boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    // Stop the worker, release its deflater and delete the scratch file once the queued maintenance is done
+    public void close() {
+        if (worker.isShutdown()) return;
+
+        worker.execute(() -> {
+            deflater.end();
+            if (spillFile != null) spillFile.close();
+        });
+        worker.shutdown();
+    }
+
+    // --- TILE OPERATIONS ---
+
+    // Compare the dirty tiles with the committed state and store the ones that changed
+    private HistoryEntry diff(BufferedImage image, BitSet dirty) {
+        boolean sparse = CanvasRaster.isSparse(image);
+        BufferedImage next = sparse ? CanvasRaster.snapshot(image) : null; // the new committed state
+
+        int count = dirty.cardinality();
+        int[] changed = new int[count];
+        StoredTile[] before = new StoredTile[count];
+        StoredTile[] after = new StoredTile[count];
+        count = 0;
+
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < handles.length; i = dirty.nextSetBit(i + 1)) {
+            // A tile still pending in the canvas was never written, it is not decoded just to compare it
+            if (sparse && CanvasRaster.getTiledBuffer(next).isPending(i)) continue;
+
+            int[] current = sparse ? getFrozenTile(next, i) : Arrays.copyOf(scratch, CanvasRaster.readTile(image, i, scratch));
+            int[] previous = getCommittedTile(i);
+            if (samePixels(current, previous)) continue;
+
+            changed[count] = i;
+            before[count] = handles[i] != null ? handles[i] : new StoredTile(previous, heapBytes);
+            after[count] = new StoredTile(current, heapBytes);
+            count++;
+        }
+
+        if (sparse) committed = next;
+        if (count == 0) return null;
+
+        HistoryEntry entry = new HistoryEntry(width, height, width, height,
+                Arrays.copyOf(changed, count), Arrays.copyOf(before, count), Arrays.copyOf(after, count));
+        for (int i = 0; i < count; i++) {
+            setHandle(entry.indices[i], entry.after[i]);
+            if (!sparse) writeCommitted(entry.indices[i], entry.after[i].getPixels());
+        }
+        return entry;
+    }
+
+    private BufferedImage apply(BufferedImage image, HistoryEntry entry, boolean forward, IntConsumer restored) {
+        StoredTile[] source = forward ? entry.after : entry.before;
+
+        if (entry.isResize()) {
+            int newWidth = forward ? entry.afterWidth : entry.beforeWidth;
+            int newHeight = forward ? entry.afterHeight : entry.beforeHeight;
+
+            BufferedImage result = CanvasRaster.create(newWidth, newHeight, 0);
+            for (int i = 0; i < source.length; i++) {
+                int[] pixels = source[i].getPixels();
+                CanvasRaster.writeTile(result, i, pixels, pixels.length);
+            }
+
+            releaseHandles();
+            commit(result);
+            handles = source.clone();
+            for (StoredTile handle : handles) handle.retain();
+            return result;
+        }
+
+        for (int i = 0; i < entry.indices.length; i++) {
+            int index = entry.indices[i];
+            int[] pixels = source[i].getPixels();
+            setHandle(index, source[i]);
+            CanvasRaster.writeTile(image, index, pixels, pixels.length);
+            if (!CanvasRaster.isSparse(committed)) writeCommitted(index, pixels);
+            restored.accept(index);
+        }
+        if (CanvasRaster.isSparse(image)) committed = CanvasRaster.snapshot(image);
+        return image;
+    }
+
+    // Take the image as the committed state, what was reported dirty so far is part of it
+    private void commit(BufferedImage image) {
+        width = image.getWidth();
+        height = image.getHeight();
+        committed = CanvasRaster.snapshot(image);
+        synchronized (dirtyLock) {
+            dirtyTiles = new BitSet();
+            allDirty = false;
+        }
+    }
+
+    // Pixels of a committed tile in the compact form of CanvasRaster.readTile
+    private int[] getCommittedTile(int index) {
+        if (CanvasRaster.isSparse(committed)) return getFrozenTile(committed, index);
+        return Arrays.copyOf(scratch, CanvasRaster.readTile(committed, index, scratch));
+    }
+
+    // A snapshot is never written to, its tile arrays can be kept without copying them
+    private static int[] getFrozenTile(BufferedImage snapshot, int index) {
+        TiledDataBuffer data = CanvasRaster.getTiledBuffer(snapshot);
+        int[] tile = data.getTile(index);
+        return tile != null ? tile : new int[] {data.getUniformColor(index)};
+    }
+
+    private void writeCommitted(int index, int[] pixels) {
+        CanvasRaster.writeTile(committed, index, pixels, pixels.length);
+    }
+
+    // Stored tiles of the whole committed state, for steps that change the canvas size
+    private StoredTile[] storeAll() {
+        StoredTile[] result = new StoredTile[handles.length];
+        for (int i = 0; i < result.length; i++) {
+            if (handles[i] == null) setHandle(i, new StoredTile(getCommittedTile(i), heapBytes));
+            result[i] = handles[i];
+        }
+        return result;
+    }
+
+    private void setHandle(int index, StoredTile tile) {
+        tile.retain();
+        if (handles[index] != null) handles[index].release();
+        handles[index] = tile;
+    }
+
+    private void releaseHandles() {
+        if (handles == null) return;
+        for (StoredTile handle : handles) {
+            if (handle != null) handle.release();
+        }
+    }
+
+    // Tiles are equal if they hold the same pixels, whether stored in full or in the compact form
+    private static boolean samePixels(int[] a, int[] b) {
+        if (a == b) return true;
+        if (a.length == b.length) return Arrays.equals(a, b);
+
+        int[] compact = a.length == 1 ? a : b;
+        int[] full = a.length == 1 ? b : a;
+        if (compact.length != 1) return false;
+        for (int pixel : full) {
+            if (pixel != compact[0]) return false;
+        }
+        return true;
+    }
+
+    private void push(Deque<HistoryEntry> stack, HistoryEntry entry) {
+        stack.push(entry);
+        if (stack.size() > limit) stack.removeLast().release();
+    }
+
+    private void clear(Deque<HistoryEntry> stack) {
+        for (HistoryEntry entry : stack) entry.release();
+        stack.clear();
+    }
+
+    // --- BUDGET MAINTENANCE ---
+
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            worker.execute(() -> {
+                maintenanceScheduled.set(false);
+                maintain();
+            });
+        }
+    }
+
+    // Runs on the worker thread, the history lock is only held while collecting or dropping entries
+    private void maintain() {
+        // Step 1: deflate the raw tiles of the older entries
+        for (HistoryEntry entry : collectEntries(RAW_ENTRIES)) {
+            compress(entry);
+        }
+
+        // Step 2: under memory pressure deflate the recent entries as well, except the latest one
+        if (heapUsage() > budgetBytes / 2) {
+            for (HistoryEntry entry : collectEntries(1)) {
+                compress(entry);
+            }
+        }
+
+        // Step 3: spill the oldest compressed tiles while the heap usage is over half of the budget
+        long excess = heapUsage() - budgetBytes / 2;
+        if (spillFile != null && excess > 0) {
+            spilling:
+            for (HistoryEntry entry : collectEntries(RAW_ENTRIES)) {
+                if (entry.spilled) continue;
+                for (StoredTile[] tiles : new StoredTile[][] {entry.before, entry.after}) {
+                    for (StoredTile tile : tiles) {
+                        if (excess <= 0) break spilling;
+
+                        long bytes = tile.isCompressed() ? tile.getHeapBytes() : 0;
+                        if (!tile.spill(spillFile)) break spilling;
+                        excess -= bytes;
+                    }
+                }
+                entry.spilled = entry.compressed;
+            }
+        }
+
+        // Step 4: drop the oldest undo entries, then the furthest redo entries, while still over the budget
+        synchronized (this) {
+            while (heapUsage() > budgetBytes) {
+                if (undoStack.size() > 1) {
+                    undoStack.removeLast().release();
+                } else if (!redoStack.isEmpty()) {
+                    redoStack.removeLast().release();
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compress(HistoryEntry entry) {
+        if (entry.compressed) return;
+        for (StoredTile tile : entry.before) tile.compress(deflater);
+        for (StoredTile tile : entry.after) tile.compress(deflater);
+        entry.compressed = true;
+    }
+
+    // Undo entries from oldest to newest, skipping the given number of most recent entries
+    private synchronized List<HistoryEntry> collectEntries(int skipRecent) {
+        List<HistoryEntry> result = new ArrayList<>();
+        int remaining = undoStack.size() - skipRecent;
+        Iterator<HistoryEntry> iterator = undoStack.descendingIterator();
+
+        while (iterator.hasNext() && remaining-- > 0) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    // Stored tiles of both stacks, plus the private copy a dense canvas is committed to
+    private synchronized long heapUsage() {
+        long total = heapBytes.get();
+        if (committed != null && !CanvasRaster.isSparse(committed)) total += (long) width * height * 4;
+        return total;
+    }
+}
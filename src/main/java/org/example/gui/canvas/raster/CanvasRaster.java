@@ -0,0 +1,525 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/*
+ * CanvasRaster is the tile-aware pixel API of the painting engine.
+ * A canvas image is either a regular TYPE_INT_ARGB image (normal documents) or an image backed by a
+ * TiledDataBuffer (very large documents). Whole-image work (history, compositing, painting) goes through
+ * these helpers so that sparse canvases are never expanded to their full size.
+ */
+public final class CanvasRaster {
+    public static final int TILE_SIZE = 64;
+    public static final int MAX_DIMENSION = 32768;
+
+    // Documents with more pixels than this use sparse tiled storage
+    public static final long SPARSE_THRESHOLD = 4096L * 4096L;
+
+    // Regions with more pixels than this are composited on several threads
+    private static final int PARALLEL_THRESHOLD = 256 * 256;
+
+    private static final int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+
+    private CanvasRaster() {}
+
+    // --- CREATION ---
+
+    public static BufferedImage create(int width, int height, int fillColor) {
+        if ((long) width * height > SPARSE_THRESHOLD) return createSparse(width, height, fillColor);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        if (fillColor != 0) fill(image, fillColor);
+        return image;
+    }
+
+    public static BufferedImage createSparse(int width, int height, int fillColor) {
+        return wrap(new TiledDataBuffer(width, height, TILE_SIZE, fillColor));
+    }
+
+    private static BufferedImage wrap(TiledDataBuffer data) {
+        int width = data.getWidth();
+        int height = data.getHeight();
+        SampleModel sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, ARGB_MASKS);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, data, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+    // Images the painting engine can work on directly
+    public static boolean isCanvasImage(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_INT_ARGB || isSparse(image);
+    }
+
+    public static boolean isSparse(BufferedImage image) {
+        return image.getRaster().getDataBuffer() instanceof TiledDataBuffer;
+    }
+
+    public static TiledDataBuffer getTiledBuffer(BufferedImage image) {
+        return (TiledDataBuffer) image.getRaster().getDataBuffer();
+    }
+
+    // True while tiles of a lazily opened document are still to be decoded, see TiledDataBuffer
+    public static boolean hasPendingTiles(BufferedImage image) {
+        return isSparse(image) && getTiledBuffer(image).hasPendingTiles();
+    }
+
+    // Pending tiles of a lazily opened image, the ones closest to the focus region (document coordinates) first
+    public static int[] getPendingTiles(BufferedImage image, Rectangle focus) {
+        if (!hasPendingTiles(image)) return new int[0];
+
+        TiledDataBuffer data = getTiledBuffer(image);
+        int columns = data.getColumns();
+        int left = focus.x / TILE_SIZE;
+        int top = focus.y / TILE_SIZE;
+        int right = (focus.x + Math.max(focus.width, 1) - 1) / TILE_SIZE;
+        int bottom = (focus.y + Math.max(focus.height, 1) - 1) / TILE_SIZE;
+
+        return IntStream.range(0, data.getColumns() * data.getRows())
+                .filter(data::isPending)
+                .boxed()
+                .sorted(Comparator.comparingLong(index -> {
+                    long dx = Math.max(0, Math.max(left - index % columns, index % columns - right));
+                    long dy = Math.max(0, Math.max(top - index / columns, index / columns - bottom));
+                    return dx * dx + dy * dy;
+                }))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /*
+     * Frozen copy of a canvas image for readers on other threads (autosave, export, thumbnails).
+     * Sparse images share their tiles copy-on-write, so this is O(tiles) and copies no pixels,
+     * dense images (at most SPARSE_THRESHOLD pixels) are copied in one go.
+     * Writers must not be drawing into the image while the snapshot is taken.
+     */
+    public static BufferedImage snapshot(BufferedImage image) {
+        if (isSparse(image)) return wrap(getTiledBuffer(image).snapshot());
+
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] target = ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+        System.arraycopy(source, 0, target, 0, target.length);
+        return copy;
+    }
+
+    public static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = create(image.getWidth(), image.getHeight(), 0);
+        for (int i = 0; i < getTileCount(image); i++) {
+            int[] data = new int[TILE_SIZE * TILE_SIZE];
+            writeTile(copy, i, data, readTile(image, i, data));
+        }
+        return copy;
+    }
+
+    // --- PIXELS ---
+
+    public static boolean contains(BufferedImage image, int x, int y) {
+        return x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight();
+    }
+
+    public static int getPixel(BufferedImage image, int x, int y) {
+        if (isSparse(image)) return getTiledBuffer(image).getElem(y * image.getWidth() + x);
+        return image.getRGB(x, y);
+    }
+
+    // Replace every pixel with the given color
+    public static void fill(BufferedImage image, int color) {
+        if (isSparse(image)) {
+            getTiledBuffer(image).fill(color);
+            return;
+        }
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setColor(new Color(color, true));
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.dispose();
+    }
+
+    public static void clear(BufferedImage image) {
+        fill(image, 0);
+    }
+
+    // Make the pixels inside region transparent
+    public static void clear(BufferedImage image, Rectangle region) {
+        Rectangle area = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (area.isEmpty()) return;
+
+        if (!isSparse(image)) {
+            Graphics2D g2d = image.createGraphics();
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fillRect(area.x, area.y, area.width, area.height);
+            g2d.dispose();
+            return;
+        }
+
+        TiledDataBuffer data = getTiledBuffer(image);
+        for (int index : getTilesIn(image, area)) {
+            Rectangle tile = getTileBounds(image, index);
+            if (area.contains(tile)) {
+                data.fillTile(index, 0);
+            } else if (!data.isUniform(index) || data.getUniformColor(index) != 0) {
+                Rectangle part = tile.intersection(area);
+                Graphics2D g2d = data.getTileImage(index).createGraphics();
+                g2d.setComposite(AlphaComposite.Clear);
+                g2d.fillRect(part.x - tile.x, part.y - tile.y, part.width, part.height);
+                g2d.dispose();
+            }
+        }
+    }
+
+    // --- TILES ---
+
+    public static int getColumns(BufferedImage image) {
+        return (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public static int getRows(BufferedImage image) {
+        return (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public static int getTileCount(BufferedImage image) {
+        return getColumns(image) * getRows(image);
+    }
+
+    // Indices of the tiles intersecting region
+    public static int[] getTilesIn(BufferedImage image, Rectangle region) {
+        Rectangle area = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (area.isEmpty()) return new int[0];
+
+        int columns = getColumns(image);
+        int firstColumn = area.x / TILE_SIZE;
+        int lastColumn = (area.x + area.width - 1) / TILE_SIZE;
+        int firstRow = area.y / TILE_SIZE;
+        int lastRow = (area.y + area.height - 1) / TILE_SIZE;
+
+        int[] result = new int[(lastColumn - firstColumn + 1) * (lastRow - firstRow + 1)];
+        int i = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                result[i++] = row * columns + column;
+            }
+        }
+        return result;
+    }
+
+    public static Rectangle getTileBounds(BufferedImage image, int index) {
+        int columns = getColumns(image);
+        int x = (index % columns) * TILE_SIZE;
+        int y = (index / columns) * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, image.getWidth() - x), Math.min(TILE_SIZE, image.getHeight() - y));
+    }
+
+    /*
+     * Copy the pixels of a tile into out (row-major, tile width wide) and return the number of ints written.
+     * Uniform tiles of sparse images are returned in compact form: a single int holding their color.
+     */
+    public static int readTile(BufferedImage image, int index, int[] out) {
+        if (isSparse(image)) {
+            TiledDataBuffer data = getTiledBuffer(image);
+            int[] tile = data.getTile(index);
+            if (tile == null) {
+                out[0] = data.getUniformColor(index);
+                return 1;
+            }
+            System.arraycopy(tile, 0, out, 0, tile.length);
+            return tile.length;
+        }
+
+        Rectangle bounds = getTileBounds(image, index);
+        image.getRaster().getDataElements(bounds.x, bounds.y, bounds.width, bounds.height, out);
+        return bounds.width * bounds.height;
+    }
+
+    // Copy the rows [y, y + rows) into out (width wide, non-premultiplied ARGB), sparse images are read tile by tile
+    public static void readRows(BufferedImage image, int y, int rows, int[] out) {
+        int width = image.getWidth();
+
+        if (isSparse(image)) {
+            TiledDataBuffer data = getTiledBuffer(image);
+            for (int row = y; row < y + rows; ) {
+                int tileRow = row / TILE_SIZE;
+                int end = Math.min(y + rows, (tileRow + 1) * TILE_SIZE);
+
+                for (int column = 0; column < data.getColumns(); column++) {
+                    int index = tileRow * data.getColumns() + column;
+                    int tileWidth = data.getTileWidth(index);
+                    int[] tile = data.getTile(index);
+
+                    for (int r = row; r < end; r++) {
+                        int offset = (r - y) * width + column * TILE_SIZE;
+                        if (tile == null) {
+                            Arrays.fill(out, offset, offset + tileWidth, data.getUniformColor(index));
+                        } else {
+                            System.arraycopy(tile, (r % TILE_SIZE) * tileWidth, out, offset, tileWidth);
+                        }
+                    }
+                }
+                row = end;
+            }
+            return;
+        }
+
+        WritableRaster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && raster.getParent() == null
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            System.arraycopy(data, y * width, out, 0, rows * width);
+            return;
+        }
+
+        image.getRGB(0, y, width, rows, out, 0, width);
+    }
+
+    /*
+     * Copy any region into out (row-major, region width wide) and return the number of ints written.
+     * A region of a sparse image covered by uniform tiles of one color is returned in compact form, as by readTile.
+     */
+    public static int readRegion(BufferedImage image, Rectangle region, int[] out) {
+        int length = region.width * region.height;
+        if (!isSparse(image)) {
+            image.getRaster().getDataElements(region.x, region.y, region.width, region.height, out);
+            return length;
+        }
+
+        TiledDataBuffer data = getTiledBuffer(image);
+        int[] tiles = getTilesIn(image, region);
+
+        boolean uniform = true;
+        for (int index : tiles) {
+            if (!data.isUniform(index) || data.getUniformColor(index) != data.getUniformColor(tiles[0])) {
+                uniform = false;
+                break;
+            }
+        }
+        if (uniform) {
+            out[0] = data.getUniformColor(tiles[0]);
+            return 1;
+        }
+
+        for (int index : tiles) {
+            Rectangle bounds = getTileBounds(image, index);
+            Rectangle part = bounds.intersection(region);
+            int[] tile = data.getTile(index);
+
+            for (int y = part.y; y < part.y + part.height; y++) {
+                int offset = (y - region.y) * region.width + part.x - region.x;
+                if (tile == null) {
+                    Arrays.fill(out, offset, offset + part.width, data.getUniformColor(index));
+                } else {
+                    System.arraycopy(tile, (y - bounds.y) * bounds.width + part.x - bounds.x, out, offset, part.width);
+                }
+            }
+        }
+        return length;
+    }
+
+    // Inverse of readTile, accepts the compact form as well
+    public static void writeTile(BufferedImage image, int index, int[] data, int length) {
+        Rectangle bounds = getTileBounds(image, index);
+        boolean compact = length == 1 && bounds.width * bounds.height > 1;
+
+        if (isSparse(image)) {
+            if (compact) {
+                getTiledBuffer(image).fillTile(index, data[0]);
+            } else {
+                getTiledBuffer(image).setTile(index, data);
+            }
+            return;
+        }
+
+        if (compact) {
+            int[] expanded = new int[bounds.width * bounds.height];
+            Arrays.fill(expanded, data[0]);
+            data = expanded;
+        }
+        image.getRaster().setDataElements(bounds.x, bounds.y, bounds.width, bounds.height, data);
+    }
+
+    // 64-bit hash of the output of readTile, used to find the tiles that changed since they were last saved
+    public static long hashTile(int[] pixels, int length) {
+        long hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = (hash + pixels[i]) * 0x9e3779b97f4a7c15L;
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    // --- TRANSFORMS ---
+
+    /*
+     * Rotations by a quarter turn, mirroring and canvas resizing are done tile by tile on the raw arrays:
+     * each tile of the result is read from the matching region of the source, so a uniform region stays a
+     * uniform tile and a sparse canvas never goes through the per pixel DataBuffer accessors.
+     */
+    public static BufferedImage rotate90(BufferedImage image, boolean clockwise) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = create(height, width, 0);
+
+        IntStream.range(0, getTileCount(result)).parallel().forEach(index -> {
+            Rectangle tile = getTileBounds(result, index);
+            int tw = tile.width;
+            int th = tile.height;
+
+            // Source columns become rows of the result: the region is th wide and tw high
+            Rectangle source = clockwise
+                    ? new Rectangle(tile.y, height - tile.x - tw, th, tw)
+                    : new Rectangle(width - tile.y - th, tile.x, th, tw);
+            int[] region = new int[tw * th];
+            if (readRegion(image, source, region) == 1) {
+                writeTile(result, index, region, 1);
+                return;
+            }
+
+            int[] pixels = new int[tw * th];
+            for (int y = 0; y < th; y++) {
+                for (int x = 0; x < tw; x++) {
+                    pixels[y * tw + x] = clockwise ? region[(tw - 1 - x) * th + y] : region[x * th + th - 1 - y];
+                }
+            }
+            writeTile(result, index, pixels, pixels.length);
+        });
+        return result;
+    }
+
+    // Mirror the image, horizontal reverses the x axis
+    public static BufferedImage flip(BufferedImage image, boolean horizontal) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = create(width, height, 0);
+
+        IntStream.range(0, getTileCount(result)).parallel().forEach(index -> {
+            Rectangle tile = getTileBounds(result, index);
+            int tw = tile.width;
+            int th = tile.height;
+
+            Rectangle source = horizontal
+                    ? new Rectangle(width - tile.x - tw, tile.y, tw, th)
+                    : new Rectangle(tile.x, height - tile.y - th, tw, th);
+            int[] region = new int[tw * th];
+            if (readRegion(image, source, region) == 1) {
+                writeTile(result, index, region, 1);
+                return;
+            }
+
+            int[] pixels = new int[tw * th];
+            for (int y = 0; y < th; y++) {
+                if (horizontal) {
+                    for (int x = 0; x < tw; x++) pixels[y * tw + x] = region[y * tw + tw - 1 - x];
+                } else {
+                    System.arraycopy(region, (th - 1 - y) * tw, pixels, y * tw, tw);
+                }
+            }
+            writeTile(result, index, pixels, pixels.length);
+        });
+        return result;
+    }
+
+    // The image drawn at the origin of a canvas of another size filled with background, what is outside is cut off
+    public static BufferedImage resize(BufferedImage image, int width, int height, int background) {
+        BufferedImage result = create(width, height, background);
+        Rectangle overlap = new Rectangle(0, 0, Math.min(width, image.getWidth()), Math.min(height, image.getHeight()));
+        if (overlap.isEmpty()) return result;
+
+        // Both grids start at the origin, so the source of a tile is the same rectangle of the image
+        IntStream.of(getTilesIn(result, overlap)).parallel().forEach(index -> {
+            Rectangle tile = getTileBounds(result, index);
+            Rectangle part = tile.intersection(overlap);
+            int[] region = new int[part.width * part.height];
+            int length = readRegion(image, part, region);
+
+            if (length == 1 && part.equals(tile)) {
+                writeTile(result, index, new int[] {PixelBlend.srcOver(background, region[0], 255)}, 1);
+                return;
+            }
+
+            int[] pixels = new int[tile.width * tile.height];
+            Arrays.fill(pixels, background);
+            for (int y = 0; y < part.height; y++) {
+                for (int x = 0; x < part.width; x++) {
+                    int pixel = length == 1 ? region[0] : region[y * part.width + x];
+                    pixels[y * tile.width + x] = PixelBlend.srcOver(background, pixel, 255);
+                }
+            }
+            writeTile(result, index, pixels, pixels.length);
+        });
+        return result;
+    }
+
+    // --- COMPOSITING AND PAINTING ---
+
+    /*
+     * Draw the region of src over dst with the given opacity, both images must have the same size.
+     * Pixels are blended tile by tile on the raw arrays, large regions are split over the common pool.
+     */
+    public static void composite(BufferedImage dst, BufferedImage src, float opacity, Rectangle region) {
+        Rectangle area = region.intersection(new Rectangle(0, 0, dst.getWidth(), dst.getHeight()));
+        if (area.isEmpty()) return;
+
+        int alpha = Math.round(Math.max(0f, Math.min(1f, opacity)) * 255);
+        IntStream tiles = IntStream.of(getTilesIn(dst, area));
+        if ((long) area.width * area.height > PARALLEL_THRESHOLD) tiles = tiles.parallel();
+
+        tiles.forEach(index -> {
+            int[] srcTile = new int[TILE_SIZE * TILE_SIZE];
+            int srcLength = readTile(src, index, srcTile);
+            if (srcLength == 1 && srcTile[0] >>> 24 == 0) return; // nothing to draw
+
+            int[] dstTile = new int[TILE_SIZE * TILE_SIZE];
+            int dstLength = readTile(dst, index, dstTile);
+            Rectangle tile = getTileBounds(dst, index);
+            if (dstLength == 1) Arrays.fill(dstTile, 0, tile.width * tile.height, dstTile[0]);
+
+            Rectangle part = tile.intersection(area);
+            for (int y = part.y - tile.y; y < part.y - tile.y + part.height; y++) {
+                for (int x = part.x - tile.x; x < part.x - tile.x + part.width; x++) {
+                    int i = y * tile.width + x;
+                    dstTile[i] = PixelBlend.srcOver(dstTile[i], srcLength == 1 ? srcTile[0] : srcTile[i], alpha);
+                }
+            }
+            writeTile(dst, index, dstTile, tile.width * tile.height);
+        });
+    }
+
+    // Draw the part of the image inside region (document coordinates), nothing outside of it is read
+    public static void draw(Graphics2D g2d, BufferedImage image, Rectangle region) {
+        Rectangle visible = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (visible.isEmpty()) return;
+
+        if (!isSparse(image)) {
+            int right = visible.x + visible.width;
+            int bottom = visible.y + visible.height;
+            g2d.drawImage(image, visible.x, visible.y, right, bottom, visible.x, visible.y, right, bottom, null);
+            return;
+        }
+
+        TiledDataBuffer data = getTiledBuffer(image);
+
+        int firstColumn = visible.x / TILE_SIZE;
+        int lastColumn = (visible.x + visible.width - 1) / TILE_SIZE;
+        int firstRow = visible.y / TILE_SIZE;
+        int lastRow = (visible.y + visible.height - 1) / TILE_SIZE;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int index = row * data.getColumns() + column;
+                int x = column * TILE_SIZE;
+                int y = row * TILE_SIZE;
+
+                BufferedImage view = data.getTileView(index);
+                if (view != null) {
+                    g2d.drawImage(view, x, y, null);
+                } else {
+                    int color = data.getUniformColor(index);
+                    if (color >>> 24 == 0) continue;
+                    g2d.setColor(new Color(color, true));
+                    g2d.fillRect(x, y, data.getTileWidth(index), data.getTileHeight(index));
+                }
+            }
+        }
+    }
+}
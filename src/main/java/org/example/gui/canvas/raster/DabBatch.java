@@ -0,0 +1,103 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/*
+ * DabBatch is a reusable list of dabs (position, size, angle, opacity and mask) kept in primitive arrays.
+ * Tools fill a batch while sampling a stroke and hand it to DabCompositor.drawBatch, which renders it in one pass.
+ * Mask CIRCLE is a solid anti-aliased circle, other mask ids are defined by the tool and resolved by its StampSource.
+ */
+public final class DabBatch {
+    public static final int CIRCLE = 0;
+
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    private float[] sizes = new float[64];
+    private float[] angles = new float[64];
+    private int[] opacities = new int[64];
+    private int[] masks = new int[64];
+    private int count = 0;
+
+    private final double[] point = new double[4]; // scratch for add(transforms, ...)
+
+    // opacity is 0..255, size is the diameter of the dab
+    public void add(float x, float y, float size, float angle, int opacity, int mask) {
+        if (count == xs.length) grow();
+
+        xs[count] = x;
+        ys[count] = y;
+        sizes[count] = size;
+        angles[count] = angle;
+        opacities[count] = opacity;
+        masks[count] = mask;
+        count++;
+    }
+
+    /*
+     * Adds one copy of the dab per transform (symmetry), moved and turned by it.
+     * Stamps are only rotated, a mirrored copy keeps the handedness of its stamp.
+     */
+    public void add(AffineTransform[] transforms, float x, float y, float size, float angle, int opacity, int mask) {
+        for (AffineTransform transform : transforms) {
+            if (transform.isIdentity()) {
+                add(x, y, size, angle, opacity, mask);
+                continue;
+            }
+
+            point[0] = x;
+            point[1] = y;
+            point[2] = Math.cos(angle);
+            point[3] = Math.sin(angle);
+            transform.transform(point, 0, point, 0, 1);
+            transform.deltaTransform(point, 2, point, 2, 1);
+            add((float) point[0], (float) point[1], size, (float) Math.atan2(point[3], point[2]), opacity, mask);
+        }
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public float getX(int i) {
+        return xs[i];
+    }
+
+    public float getY(int i) {
+        return ys[i];
+    }
+
+    public float getSize(int i) {
+        return sizes[i];
+    }
+
+    public float getAngle(int i) {
+        return angles[i];
+    }
+
+    public int getOpacity(int i) {
+        return opacities[i];
+    }
+
+    public int getMask(int i) {
+        return masks[i];
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        angles = Arrays.copyOf(angles, capacity);
+        opacities = Arrays.copyOf(opacities, capacity);
+        masks = Arrays.copyOf(masks, capacity);
+    }
+}
@@ -0,0 +1,226 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.stream.IntStream;
+
+/*
+ * DabCompositor blends brush dabs straight into the pixels of a canvas image instead of going through Graphics2D.
+ * Dense images are written through their DataBufferInt, sparse ones tile by tile (only the touched tiles are allocated).
+ * A dab is either a pre-rendered TYPE_INT_ARGB stamp, whose alpha is the coverage, or a solid circle.
+ * Dabs can be drawn one by one or as a DabBatch, which is rendered in a single pass over the touched tiles.
+ * Callers still have to report the damage to the canvas.
+ */
+public final class DabCompositor {
+    public enum Mode {
+        SRC_OVER,
+        DST_OUT
+    }
+
+    // Supplies the stamps of the non-circle masks of a batch
+    public interface StampSource {
+        BufferedImage getStamp(int mask, float size, float angle);
+    }
+
+    // Blends one row span: data[start] is the pixel at (x, y), the span is width pixels long
+    private interface SpanBlender {
+        void blend(int[] data, int start, int x, int y, int width);
+    }
+
+    // Area of the image a dab covers and how its rows are blended
+    private record Dab(Rectangle area, SpanBlender blender) {}
+
+    // Batches touching more tiles than this are rendered on several threads
+    private static final int PARALLEL_TILES = 16;
+
+    private DabCompositor() {}
+
+    // Draws the stamp with its top left corner at x, y. opacity is 0..255
+    public static void drawStamp(BufferedImage dst, BufferedImage stamp, int x, int y, int opacity, Mode mode) {
+        Dab dab = stampDab(stamp, x, y, opacity, mode);
+        apply(dst, dab.area(), mode, dab.blender());
+    }
+
+    // Fills a circle centered at cx, cy. color is only used by SRC_OVER, opacity is 0..255
+    public static void fillCircle(BufferedImage dst, float cx, float cy, float radius, int color, int opacity, Mode mode, boolean antialiased) {
+        if (radius <= 0) return;
+
+        Dab dab = circleDab(cx, cy, radius, color, opacity, mode, antialiased);
+        apply(dst, dab.area(), mode, dab.blender());
+    }
+
+    /*
+     * Draws every dab of the batch in order, tile by tile: each touched tile is visited once and gets all the dabs
+     * overlapping it, large batches spread the tiles over the common pool.
+     * Circle dabs use color, the other masks are taken from stamps (called on the calling thread only).
+     * Returns the bounds of the drawn area, or null if nothing was drawn.
+     */
+    public static Rectangle drawBatch(BufferedImage dst, DabBatch batch, int color, Mode mode, boolean antialiased, StampSource stamps) {
+        int count = batch.size();
+        if (count == 0) return null;
+
+        Dab[] dabs = new Dab[count];
+        Rectangle bounds = null;
+        for (int i = 0; i < count; i++) {
+            float size = batch.getSize(i);
+            if (batch.getMask(i) == DabBatch.CIRCLE) {
+                if (size <= 0) continue;
+                dabs[i] = circleDab(batch.getX(i), batch.getY(i), size / 2f, color, batch.getOpacity(i), mode, antialiased);
+            } else {
+                BufferedImage stamp = stamps.getStamp(batch.getMask(i), size, batch.getAngle(i));
+                int left = Math.round(batch.getX(i)) - stamp.getWidth() / 2;
+                int top = Math.round(batch.getY(i)) - stamp.getHeight() / 2;
+                dabs[i] = stampDab(stamp, left, top, batch.getOpacity(i), mode);
+            }
+            bounds = bounds == null ? new Rectangle(dabs[i].area()) : bounds.union(dabs[i].area());
+        }
+        if (bounds == null) return null;
+
+        Rectangle area = bounds.intersection(new Rectangle(0, 0, dst.getWidth(), dst.getHeight()));
+        if (area.isEmpty()) return null;
+
+        int[] tiles = CanvasRaster.getTilesIn(dst, area);
+        IntStream stream = IntStream.of(tiles);
+        if (tiles.length > PARALLEL_TILES) stream = stream.parallel();
+        stream.forEach(index -> drawTile(dst, index, dabs, mode));
+
+        return area;
+    }
+
+    private static void drawTile(BufferedImage dst, int index, Dab[] dabs, Mode mode) {
+        Rectangle tile = CanvasRaster.getTileBounds(dst, index);
+        boolean sparse = CanvasRaster.isSparse(dst);
+        int[] data = null;
+
+        for (Dab dab : dabs) {
+            if (dab == null) continue;
+            Rectangle part = dab.area().intersection(tile);
+            if (part.isEmpty()) continue;
+
+            if (data == null) {
+                if (!sparse) {
+                    data = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+                } else {
+                    TiledDataBuffer buffer = CanvasRaster.getTiledBuffer(dst);
+                    // Erasing an empty tile changes nothing, don't allocate it
+                    if (mode == Mode.DST_OUT && buffer.isUniform(index) && buffer.getUniformColor(index) >>> 24 == 0) return;
+                    data = buffer.getWritableTile(index);
+                }
+            }
+
+            if (sparse) {
+                blendRows(data, tile.width, tile.x, tile.y, part, dab.blender());
+            } else {
+                blendRows(data, dst.getWidth(), 0, 0, part, dab.blender());
+            }
+        }
+    }
+
+    // --- DABS ---
+
+    private static Dab stampDab(BufferedImage stamp, int x, int y, int opacity, Mode mode) {
+        int[] pixels = ((DataBufferInt) stamp.getRaster().getDataBuffer()).getData();
+        int stampWidth = stamp.getWidth();
+        Rectangle area = new Rectangle(x, y, stampWidth, stamp.getHeight());
+
+        if (mode == Mode.SRC_OVER) {
+            return new Dab(area, (data, start, px, py, width) -> {
+                int s = (py - y) * stampWidth + (px - x);
+                for (int i = 0; i < width; i++) {
+                    int src = pixels[s + i];
+                    if (src >>> 24 != 0) data[start + i] = PixelBlend.srcOver(data[start + i], src, opacity);
+                }
+            });
+        }
+
+        return new Dab(area, (data, start, px, py, width) -> {
+            int s = (py - y) * stampWidth + (px - x);
+            for (int i = 0; i < width; i++) {
+                int coverage = PixelBlend.mul255(pixels[s + i] >>> 24, opacity);
+                if (coverage != 0) data[start + i] = PixelBlend.dstOut(data[start + i], coverage);
+            }
+        });
+    }
+
+    private static Dab circleDab(float cx, float cy, float radius, int color, int opacity, Mode mode, boolean antialiased) {
+        int left = (int) Math.floor(cx - radius - 1);
+        int top = (int) Math.floor(cy - radius - 1);
+        int right = (int) Math.ceil(cx + radius + 1);
+        int bottom = (int) Math.ceil(cy + radius + 1);
+        Rectangle area = new Rectangle(left, top, right - left, bottom - top);
+
+        float inner = antialiased ? Math.max(0, radius - 0.5f) : radius; // fully covered inside this radius
+        float outer = antialiased ? radius + 0.5f : radius;
+        float innerSquared = inner * inner;
+        float outerSquared = outer * outer;
+        int srcAlpha = color >>> 24;
+
+        return new Dab(area, (data, start, px, py, width) -> {
+            float dy = py + 0.5f - cy;
+            float dySquared = dy * dy;
+            if (dySquared >= outerSquared) return;
+
+            // Pixels whose centers are within inner get full coverage, only the two edges need a square root
+            int solidFrom = width;
+            int solidTo = width;
+            if (dySquared < innerSquared) {
+                float half = (float) Math.sqrt(innerSquared - dySquared);
+                solidFrom = Math.max(0, (int) Math.ceil(cx - half - 0.5f) - px);
+                solidTo = Math.min(width, (int) Math.floor(cx + half - 0.5f) + 1 - px);
+                if (solidTo < solidFrom) solidTo = solidFrom;
+            }
+
+            for (int i = 0; i < width; i++) {
+                int coverage = opacity;
+                if (i < solidFrom || i >= solidTo) {
+                    float dx = px + i + 0.5f - cx;
+                    float distanceSquared = dx * dx + dySquared;
+                    if (distanceSquared >= outerSquared) continue;
+                    if (distanceSquared > innerSquared) {
+                        coverage = Math.round((outer - (float) Math.sqrt(distanceSquared)) * opacity);
+                        if (coverage <= 0) continue;
+                    }
+                }
+
+                int d = data[start + i];
+                if (mode == Mode.SRC_OVER) {
+                    data[start + i] = PixelBlend.srcOver(d, color, coverage);
+                } else {
+                    data[start + i] = PixelBlend.dstOut(d, srcAlpha == 255 ? coverage : PixelBlend.mul255(srcAlpha, coverage));
+                }
+            }
+        });
+    }
+
+    // --- TRAVERSAL ---
+
+    private static void apply(BufferedImage dst, Rectangle area, Mode mode, SpanBlender blender) {
+        Rectangle part = area.intersection(new Rectangle(0, 0, dst.getWidth(), dst.getHeight()));
+        if (part.isEmpty()) return;
+
+        if (!CanvasRaster.isSparse(dst)) {
+            if (dst.getType() != BufferedImage.TYPE_INT_ARGB) throw new IllegalArgumentException("Not a canvas image");
+
+            int[] data = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+            blendRows(data, dst.getWidth(), 0, 0, part, blender);
+            return;
+        }
+
+        TiledDataBuffer buffer = CanvasRaster.getTiledBuffer(dst);
+        for (int index : CanvasRaster.getTilesIn(dst, part)) {
+            // Erasing an empty tile changes nothing, don't allocate it
+            if (mode == Mode.DST_OUT && buffer.isUniform(index) && buffer.getUniformColor(index) >>> 24 == 0) continue;
+
+            Rectangle tile = CanvasRaster.getTileBounds(dst, index);
+            blendRows(buffer.getWritableTile(index), tile.width, tile.x, tile.y, tile.intersection(part), blender);
+        }
+    }
+
+    // Blend the rows of part into data, which holds the pixels of a stride wide area starting at (originX, originY)
+    private static void blendRows(int[] data, int stride, int originX, int originY, Rectangle part, SpanBlender blender) {
+        for (int y = part.y; y < part.y + part.height; y++) {
+            blender.blend(data, (y - originY) * stride + (part.x - originX), part.x, y, part.width);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+ * FloodFill is the flood fill of the bucket tool, it works on the raw pixels of a canvas image.
+ * A pixel belongs to the region when no channel differs from the seed color by more than the tolerance.
+ *
+ * The region is found in two steps:
+ * - A span based (scanline) fill: every span of matching pixels is found by walking left and right from a seed,
+ *   and the rows above and below are scanned for new seeds, which go on a plain int stack.
+ * - If the region turns out to be very large, the scanline fill is abandoned and the image is labeled tile by tile on
+ *   the common fork-join pool. Labels touching across tile borders are merged with a union-find, the region is the
+ *   label set of the seed.
+ * Either way the region ends up in a per-tile bit mask, which is then written (and its edges anti-aliased) in parallel.
+ */
+public final class FloodFill {
+    private static final int TILE_SIZE = CanvasRaster.TILE_SIZE; // a mask row is a long, so at most 64
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(TILE_SIZE);
+
+    // Above this many pixels the scanline fill hands over to the parallel labeling
+    private static final int SEQUENTIAL_LIMIT = 1 << 20;
+
+    // Regions touching more tiles than this are written on several threads
+    private static final int PARALLEL_TILES = 64;
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final int[] data; // pixels of dense images, null for sparse ones
+    private final TiledDataBuffer tiles; // pixels of sparse images, null for dense ones
+
+    private final int target;
+    private final int tolerance;
+
+    private FloodFill(BufferedImage image, int target, int tolerance) {
+        if (!CanvasRaster.isCanvasImage(image)) throw new IllegalArgumentException("Not a canvas image");
+
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.columns = CanvasRaster.getColumns(image);
+        this.rows = CanvasRaster.getRows(image);
+        this.data = CanvasRaster.isSparse(image) ? null : ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.tiles = CanvasRaster.isSparse(image) ? CanvasRaster.getTiledBuffer(image) : null;
+        this.target = target;
+        this.tolerance = tolerance;
+    }
+
+    /*
+     * Replace the 4-connected region of pixels with the same color as (x, y) with color.
+     * Returns the bounds of the changed pixels, or null if nothing changed.
+     */
+    public static Rectangle fill(BufferedImage image, int x, int y, int color) {
+        return fill(image, x, y, color, 0, false);
+    }
+
+    /*
+     * Same as above, matching every pixel within tolerance (0..255, per channel) of the seed color.
+     * With antialiased, pixels just outside the region are blended with color by how close they are to the seed color.
+     */
+    public static Rectangle fill(BufferedImage image, int x, int y, int color, int tolerance, boolean antialiased) {
+        if (!CanvasRaster.contains(image, x, y)) return null;
+
+        int target = CanvasRaster.getPixel(image, x, y);
+        if (target == color && tolerance == 0) return null;
+
+        FloodFill fill = new FloodFill(image, target, tolerance);
+        RegionMask region = fill.scanline(x, y);
+        if (region == null) region = fill.label(x, y);
+
+        return fill.apply(region, color, antialiased);
+    }
+
+    /*
+     * Replace every pixel within tolerance of the color at (x, y) with color, connected or not.
+     * Bands of TILE_SIZE rows are recolored in parallel. Returns the bounds of the changed pixels, or null.
+     */
+    public static Rectangle fillAll(BufferedImage image, int x, int y, int color, int tolerance) {
+        if (!CanvasRaster.contains(image, x, y)) return null;
+
+        int target = CanvasRaster.getPixel(image, x, y);
+        if (target == color && tolerance == 0) return null;
+
+        return new FloodFill(image, target, tolerance).replace(color);
+    }
+
+    // --- SCANLINE FILL ---
+
+    // Returns null if the region is bigger than SEQUENTIAL_LIMIT and the image can be labeled in parallel
+    private RegionMask scanline(int seedX, int seedY) {
+        boolean canGiveUp = Runtime.getRuntime().availableProcessors() > 1 && (long) width * height > SEQUENTIAL_LIMIT;
+        RegionMask region = new RegionMask();
+        IntStack stack = new IntStack();
+        long filled = 0;
+
+        stack.push(seedX, seedY);
+        while (!stack.isEmpty()) {
+            int y = stack.pop();
+            int x = stack.pop();
+            if (!isCandidate(region, x, y)) continue; // already filled through another seed
+
+            int left = x;
+            while (left > 0 && isCandidate(region, left - 1, y)) left--;
+            int right = x;
+            while (right < width - 1 && isCandidate(region, right + 1, y)) right++;
+
+            region.setSpan(left, right, y);
+            filled += right - left + 1;
+            if (canGiveUp && filled > SEQUENTIAL_LIMIT) return null;
+
+            if (y > 0) pushSeeds(region, stack, left, right, y - 1);
+            if (y < height - 1) pushSeeds(region, stack, left, right, y + 1);
+        }
+
+        return region;
+    }
+
+    // Push one seed for every run of candidate pixels in row y between left and right
+    private void pushSeeds(RegionMask region, IntStack stack, int left, int right, int y) {
+        boolean inRun = false;
+        for (int x = left; x <= right; x++) {
+            boolean candidate = isCandidate(region, x, y);
+            if (candidate && !inRun) stack.push(x, y);
+            inRun = candidate;
+        }
+    }
+
+    private boolean isCandidate(RegionMask region, int x, int y) {
+        return !region.get(x, y) && matches(get(x, y));
+    }
+
+    // --- PARALLEL LABELING ---
+
+    private RegionMask label(int seedX, int seedY) {
+        int tileCount = columns * rows;
+
+        // Label the matching pixels of every tile on their own. A null label array with a count of 1 means the whole tile matches
+        char[][] labels = new char[tileCount][];
+        int[] counts = new int[tileCount];
+        IntStream.range(0, tileCount).parallel().forEach(index -> labelTile(index, labels, counts));
+
+        // Give every local label a global number
+        int[] offsets = new int[tileCount];
+        int total = 0;
+        for (int i = 0; i < tileCount; i++) {
+            offsets[i] = total;
+            total += counts[i];
+        }
+
+        // Merge labels that touch across tile borders
+        UnionFind sets = new UnionFind(total);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                if (counts[index] == 0) continue;
+
+                int tileX = column * TILE_SIZE;
+                int tileY = row * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                int tileHeight = Math.min(TILE_SIZE, height - tileY);
+
+                if (column + 1 < columns && counts[index + 1] != 0) {
+                    int x = tileX + tileWidth - 1;
+                    for (int y = tileY; y < tileY + tileHeight; y++) {
+                        sets.union(globalLabel(labels, counts, offsets, x, y), globalLabel(labels, counts, offsets, x + 1, y));
+                    }
+                }
+                if (row + 1 < rows && counts[index + columns] != 0) {
+                    int y = tileY + tileHeight - 1;
+                    for (int x = tileX; x < tileX + tileWidth; x++) {
+                        sets.union(globalLabel(labels, counts, offsets, x, y), globalLabel(labels, counts, offsets, x, y + 1));
+                    }
+                }
+            }
+        }
+
+        int seedRoot = sets.find(globalLabel(labels, counts, offsets, seedX, seedY));
+        boolean[] inRegion = new boolean[total];
+        for (int i = 0; i < total; i++) inRegion[i] = sets.find(i) == seedRoot;
+
+        // Turn the labels of the seed set into the region mask
+        RegionMask region = new RegionMask();
+        IntStream.range(0, tileCount).parallel().forEach(index -> {
+            if (counts[index] == 0) return;
+
+            int tileX = (index % columns) * TILE_SIZE;
+            int tileY = (index / columns) * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, width - tileX);
+            int tileHeight = Math.min(TILE_SIZE, height - tileY);
+            char[] tileLabels = labels[index];
+
+            if (tileLabels == null) {
+                if (inRegion[offsets[index]]) region.setTile(index, tileWidth, tileHeight);
+                return;
+            }
+
+            long[] bits = null;
+            for (int y = 0; y < tileHeight; y++) {
+                for (int x = 0; x < tileWidth; x++) {
+                    char label = tileLabels[y * tileWidth + x];
+                    if (label == 0 || !inRegion[offsets[index] + label - 1]) continue;
+
+                    if (bits == null) bits = region.getWritableTile(index);
+                    bits[y] |= 1L << x;
+                }
+            }
+        });
+
+        return region;
+    }
+
+    // Connected components of the matching pixels inside one tile, labels start at 1
+    private void labelTile(int index, char[][] labels, int[] counts) {
+        if (tiles != null && tiles.isUniform(index)) {
+            counts[index] = matches(tiles.getUniformColor(index)) ? 1 : 0;
+            return;
+        }
+
+        int tileX = (index % columns) * TILE_SIZE;
+        int tileY = (index / columns) * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, width - tileX);
+        int tileHeight = Math.min(TILE_SIZE, height - tileY);
+
+        boolean[] matching = new boolean[tileWidth * tileHeight];
+        int matchCount = 0;
+        for (int y = 0; y < tileHeight; y++) {
+            for (int x = 0; x < tileWidth; x++) {
+                if (matches(get(tileX + x, tileY + y))) {
+                    matching[y * tileWidth + x] = true;
+                    matchCount++;
+                }
+            }
+        }
+
+        if (matchCount == 0) return;
+        if (matchCount == matching.length) {
+            counts[index] = 1;
+            return;
+        }
+
+        char[] tileLabels = new char[matching.length];
+        IntStack stack = new IntStack();
+        int count = 0;
+
+        for (int start = 0; start < matching.length; start++) {
+            if (!matching[start] || tileLabels[start] != 0) continue;
+
+            char label = (char) ++count;
+            tileLabels[start] = label;
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int i = stack.pop();
+                int x = i % tileWidth;
+                int y = i / tileWidth;
+
+                if (x > 0 && matching[i - 1] && tileLabels[i - 1] == 0) { tileLabels[i - 1] = label; stack.push(i - 1); }
+                if (x < tileWidth - 1 && matching[i + 1] && tileLabels[i + 1] == 0) { tileLabels[i + 1] = label; stack.push(i + 1); }
+                if (y > 0 && matching[i - tileWidth] && tileLabels[i - tileWidth] == 0) { tileLabels[i - tileWidth] = label; stack.push(i - tileWidth); }
+                if (y < tileHeight - 1 && matching[i + tileWidth] && tileLabels[i + tileWidth] == 0) { tileLabels[i + tileWidth] = label; stack.push(i + tileWidth); }
+            }
+        }
+
+        labels[index] = tileLabels;
+        counts[index] = count;
+    }
+
+    // Global label of the pixel, or -1 if it doesn't match
+    private int globalLabel(char[][] labels, int[] counts, int[] offsets, int x, int y) {
+        int index = (y >> TILE_SHIFT) * columns + (x >> TILE_SHIFT);
+        if (counts[index] == 0) return -1;
+
+        char[] tileLabels = labels[index];
+        if (tileLabels == null) return offsets[index];
+
+        int tileWidth = Math.min(TILE_SIZE, width - (x & ~(TILE_SIZE - 1)));
+        char label = tileLabels[(y & (TILE_SIZE - 1)) * tileWidth + (x & (TILE_SIZE - 1))];
+        return label == 0 ? -1 : offsets[index] + label - 1;
+    }
+
+    // --- GLOBAL REPLACE ---
+
+    private Rectangle replace(int color) {
+        boolean[] changed = new boolean[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> changed[row] = replaceBand(row, color));
+
+        Rectangle bounds = null;
+        for (int row = 0; row < rows; row++) {
+            if (!changed[row]) continue;
+            Rectangle band = new Rectangle(0, row * TILE_SIZE, width, Math.min(TILE_SIZE, height - row * TILE_SIZE));
+            bounds = bounds == null ? band : bounds.union(band);
+        }
+        return bounds;
+    }
+
+    private boolean replaceBand(int row, int color) {
+        int top = row * TILE_SIZE;
+        int bottom = Math.min(height, top + TILE_SIZE);
+        boolean changed = false;
+
+        if (data != null) {
+            for (int i = top * width; i < bottom * width; i++) {
+                if (data[i] != color && matches(data[i])) {
+                    data[i] = color;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        for (int index = row * columns; index < (row + 1) * columns; index++) {
+            if (tiles.isUniform(index)) {
+                int uniform = tiles.getUniformColor(index);
+                if (uniform != color && matches(uniform)) {
+                    tiles.fillTile(index, color);
+                    changed = true;
+                }
+                continue;
+            }
+
+            int[] tile = tiles.getTile(index);
+            boolean writable = false;
+            for (int i = 0; i < tile.length; i++) {
+                if (tile[i] != color && matches(tile[i])) {
+                    if (!writable) {
+                        tile = tiles.getWritableTile(index); // a tile shared with a snapshot is copied first
+                        writable = true;
+                    }
+                    tile[i] = color;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    // --- WRITING ---
+
+    private Rectangle apply(RegionMask region, int color, boolean antialiased) {
+        int tileCount = columns * rows;
+
+        // Tiles to write: the ones with region pixels, and their neighbours for the anti-aliased edge
+        int[] affected = IntStream.range(0, tileCount).filter(index -> {
+            if (region.hasTile(index)) return true;
+            if (!antialiased) return false;
+
+            int column = index % columns;
+            int row = index / columns;
+            return (column > 0 && region.hasTile(index - 1)) || (column + 1 < columns && region.hasTile(index + 1))
+                    || (row > 0 && region.hasTile(index - columns)) || (row + 1 < rows && region.hasTile(index + columns));
+        }).toArray();
+        if (affected.length == 0) return null;
+
+        IntStream stream = IntStream.of(affected);
+        if (affected.length > PARALLEL_TILES) stream = stream.parallel();
+        stream.forEach(index -> writeTile(region, index, color, antialiased));
+
+        Rectangle bounds = null;
+        for (int index : affected) {
+            int tileX = (index % columns) * TILE_SIZE;
+            int tileY = (index / columns) * TILE_SIZE;
+            Rectangle tile = new Rectangle(tileX, tileY, Math.min(TILE_SIZE, width - tileX), Math.min(TILE_SIZE, height - tileY));
+            bounds = bounds == null ? tile : bounds.union(tile);
+        }
+        return bounds;
+    }
+
+    private void writeTile(RegionMask region, int index, int color, boolean antialiased) {
+        int tileX = (index % columns) * TILE_SIZE;
+        int tileY = (index / columns) * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, width - tileX);
+        int tileHeight = Math.min(TILE_SIZE, height - tileY);
+
+        // Keep completely filled tiles of sparse images uniform
+        if (tiles != null && region.isFull(index, tileWidth, tileHeight)) {
+            tiles.fillTile(index, color);
+            return;
+        }
+
+        int[] tile = tiles != null ? tiles.getWritableTile(index) : null;
+        for (int y = 0; y < tileHeight; y++) {
+            for (int x = 0; x < tileWidth; x++) {
+                int px = tileX + x;
+                int py = tileY + y;
+                int pixel;
+
+                if (region.get(px, py)) {
+                    pixel = color;
+                } else if (antialiased && touchesRegion(region, px, py)) {
+                    int current = tile != null ? tile[y * tileWidth + x] : data[py * width + px];
+                    int coverage = edgeCoverage(current);
+                    if (coverage == 0) continue;
+                    pixel = PixelBlend.srcOver(current, color, coverage);
+                } else {
+                    continue;
+                }
+
+                if (tile != null) {
+                    tile[y * tileWidth + x] = pixel;
+                } else {
+                    data[py * width + px] = pixel;
+                }
+            }
+        }
+    }
+
+    private boolean touchesRegion(RegionMask region, int x, int y) {
+        return (x > 0 && region.get(x - 1, y)) || (x < width - 1 && region.get(x + 1, y))
+                || (y > 0 && region.get(x, y - 1)) || (y < height - 1 && region.get(x, y + 1));
+    }
+
+    // How much of the fill color an edge pixel gets: the further from the seed color, the less
+    private int edgeCoverage(int pixel) {
+        int distance = distance(pixel);
+        if (distance >= 255 || tolerance >= 255) return 0;
+        return (255 - distance) * 255 / (255 - tolerance);
+    }
+
+    // --- PIXELS ---
+
+    private boolean matches(int pixel) {
+        return pixel == target || (tolerance > 0 && distance(pixel) <= tolerance);
+    }
+
+    // Largest per channel difference to the seed color
+    private int distance(int pixel) {
+        int da = Math.abs((pixel >>> 24) - (target >>> 24));
+        int dr = Math.abs(((pixel >> 16) & 0xff) - ((target >> 16) & 0xff));
+        int dg = Math.abs(((pixel >> 8) & 0xff) - ((target >> 8) & 0xff));
+        int db = Math.abs((pixel & 0xff) - (target & 0xff));
+        return Math.max(Math.max(da, dr), Math.max(dg, db));
+    }
+
+    private int get(int x, int y) {
+        if (data != null) return data[y * width + x];
+        return tiles.getElem(y * width + x);
+    }
+
+    // --- HELPERS ---
+
+    // One bit per pixel, stored per tile (one long per tile row) so huge documents only pay for the filled tiles
+    private final class RegionMask {
+        private final long[][] bits = new long[columns * rows][];
+
+        boolean get(int x, int y) {
+            long[] tile = bits[(y >> TILE_SHIFT) * columns + (x >> TILE_SHIFT)];
+            return tile != null && ((tile[y & (TILE_SIZE - 1)] >>> (x & (TILE_SIZE - 1))) & 1) != 0;
+        }
+
+        void setSpan(int left, int right, int y) {
+            int x = left;
+            while (x <= right) {
+                int end = Math.min(right, (x | (TILE_SIZE - 1))); // last pixel of the span in this tile
+                long[] tile = getWritableTile((y >> TILE_SHIFT) * columns + (x >> TILE_SHIFT));
+                int from = x & (TILE_SIZE - 1);
+                int to = end & (TILE_SIZE - 1);
+                long span = to == TILE_SIZE - 1 ? -1L << from : ((1L << (to + 1)) - 1) & (-1L << from);
+                tile[y & (TILE_SIZE - 1)] |= span;
+                x = end + 1;
+            }
+        }
+
+        void setTile(int index, int tileWidth, int tileHeight) {
+            long[] tile = getWritableTile(index);
+            long row = tileWidth == Long.SIZE ? -1L : (1L << tileWidth) - 1;
+            Arrays.fill(tile, 0, tileHeight, row);
+        }
+
+        boolean hasTile(int index) {
+            return bits[index] != null;
+        }
+
+        boolean isFull(int index, int tileWidth, int tileHeight) {
+            long[] tile = bits[index];
+            if (tile == null) return false;
+
+            long row = tileWidth == Long.SIZE ? -1L : (1L << tileWidth) - 1;
+            for (int y = 0; y < tileHeight; y++) {
+                if (tile[y] != row) return false;
+            }
+            return true;
+        }
+
+        long[] getWritableTile(int index) {
+            long[] tile = bits[index];
+            if (tile == null) {
+                tile = new long[TILE_SIZE];
+                bits[index] = tile;
+            }
+            return tile;
+        }
+    }
+
+    private static final class IntStack {
+        private int[] values = new int[256];
+        private int size = 0;
+
+        void push(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void push(int a, int b) {
+            push(a);
+            push(b);
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private static final class UnionFind {
+        private final int[] parent;
+
+        UnionFind(int size) {
+            parent = new int[size];
+            for (int i = 0; i < size; i++) parent[i] = i;
+        }
+
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        void union(int a, int b) {
+            if (a < 0 || b < 0) return;
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA != rootB) parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * MipPyramid keeps downsampled copies (1/2, 1/4, 1/8 ...) of a canvas image for zoomed-out display.
+ * Levels are created on first use and kept up to date incrementally: changed regions mark the covering
+ * tiles of every level dirty, and only those tiles are downsampled again when the level is requested.
+ */
+public class MipPyramid {
+    private static final int T = CanvasRaster.TILE_SIZE;
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    private final BufferedImage source;
+    private final List<BufferedImage> levels = new ArrayList<>(); // levels.get(0) is the source
+    private final List<BitSet> dirtyTiles = new ArrayList<>();
+
+    // Scratch buffers for the four source tiles and the destination tile
+    private final int[][] sourceTiles = new int[4][T * T];
+    private final int[] sourceLengths = new int[4];
+    private final int[] sourceWidths = new int[4];
+    private final int[] destination = new int[T * T];
+
+    public MipPyramid(BufferedImage source) {
+        this.source = source;
+        levels.add(source);
+        dirtyTiles.add(null);
+    }
+
+    // Level whose scale is the closest at or above the zoom factor (0 is full resolution)
+    public int getLevelFor(double zoomFactor) {
+        int level = 0;
+        while (zoomFactor <= 0.5 && canCreateLevel(level + 1)) {
+            zoomFactor *= 2;
+            level++;
+        }
+        return level;
+    }
+
+    // Returns the image of the level with all its dirty tiles updated
+    public synchronized BufferedImage getLevel(int level) {
+        for (int i = 1; i <= level; i++) {
+            if (i == levels.size()) createLevel(i);
+            update(i);
+        }
+        return levels.get(level);
+    }
+
+    // Mark a changed region of the source (source coordinates)
+    public synchronized void invalidate(Rectangle region) {
+        for (int i = 1; i < levels.size(); i++) {
+            BufferedImage level = levels.get(i);
+            int x0 = Math.max(0, region.x >> i) / T;
+            int y0 = Math.max(0, region.y >> i) / T;
+            int x1 = Math.min(level.getWidth() - 1, (region.x + region.width) >> i) / T;
+            int y1 = Math.min(level.getHeight() - 1, (region.y + region.height) >> i) / T;
+
+            int columns = CanvasRaster.getColumns(level);
+            for (int y = y0; y <= y1; y++) {
+                if (x0 <= x1) dirtyTiles.get(i).set(y * columns + x0, y * columns + x1 + 1);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 1; i < levels.size(); i++) {
+            dirtyTiles.get(i).set(0, CanvasRaster.getTileCount(levels.get(i)));
+        }
+    }
+
+    // --- LEVEL MAINTENANCE ---
+
+    private boolean canCreateLevel(int level) {
+        return Math.max(source.getWidth(), source.getHeight()) >> level >= MIN_LEVEL_SIZE;
+    }
+
+    private void createLevel(int level) {
+        int width = Math.max(1, (source.getWidth() + (1 << level) - 1) >> level);
+        int height = Math.max(1, (source.getHeight() + (1 << level) - 1) >> level);
+        BufferedImage image = CanvasRaster.create(width, height, 0);
+
+        BitSet dirty = new BitSet();
+        dirty.set(0, CanvasRaster.getTileCount(image));
+        levels.add(image);
+        dirtyTiles.add(dirty);
+    }
+
+    private void update(int level) {
+        BitSet dirty = dirtyTiles.get(level);
+        for (int index = dirty.nextSetBit(0); index >= 0; index = dirty.nextSetBit(index + 1)) {
+            downsampleTile(levels.get(level - 1), levels.get(level), index);
+        }
+        dirty.clear();
+    }
+
+    // Box filter the 2x2 source tiles under a destination tile, weighting colors by alpha
+    private void downsampleTile(BufferedImage src, BufferedImage dst, int index) {
+        int srcColumns = CanvasRaster.getColumns(src);
+        int srcRows = CanvasRaster.getRows(src);
+        int dstColumns = CanvasRaster.getColumns(dst);
+        int column = (index % dstColumns) * 2;
+        int row = (index / dstColumns) * 2;
+
+        boolean uniform = true;
+        int uniformColor = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = Math.min(column + (i & 1), srcColumns - 1);
+            int r = Math.min(row + (i >> 1), srcRows - 1);
+            int srcIndex = r * srcColumns + c;
+
+            sourceLengths[i] = CanvasRaster.readTile(src, srcIndex, sourceTiles[i]);
+            sourceWidths[i] = CanvasRaster.getTileBounds(src, srcIndex).width;
+
+            if (sourceLengths[i] != 1) {
+                uniform = false;
+            } else if (i == 0) {
+                uniformColor = sourceTiles[0][0];
+            } else if (sourceTiles[i][0] != uniformColor) {
+                uniform = false;
+            }
+        }
+
+        // Sparse fast path: four uniform tiles of the same color stay uniform
+        if (uniform) {
+            destination[0] = uniformColor;
+            CanvasRaster.writeTile(dst, index, destination, 1);
+            return;
+        }
+
+        Rectangle bounds = CanvasRaster.getTileBounds(dst, index);
+        int maxX = src.getWidth() - 1;
+        int maxY = src.getHeight() - 1;
+        int baseX = column * T;
+        int baseY = row * T;
+
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                int sx = (bounds.x + x) * 2 - baseX;
+                int sy = (bounds.y + y) * 2 - baseY;
+                int sx1 = Math.min(baseX + sx + 1, maxX) - baseX;
+                int sy1 = Math.min(baseY + sy + 1, maxY) - baseY;
+
+                int p0 = sample(sx, sy);
+                int p1 = sample(sx1, sy);
+                int p2 = sample(sx, sy1);
+                int p3 = sample(sx1, sy1);
+
+                int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+                int alphaSum = a0 + a1 + a2 + a3;
+                if (alphaSum == 0) {
+                    destination[y * bounds.width + x] = 0;
+                    continue;
+                }
+
+                int red = (((p0 >> 16) & 0xff) * a0 + ((p1 >> 16) & 0xff) * a1 + ((p2 >> 16) & 0xff) * a2 + ((p3 >> 16) & 0xff) * a3) / alphaSum;
+                int green = (((p0 >> 8) & 0xff) * a0 + ((p1 >> 8) & 0xff) * a1 + ((p2 >> 8) & 0xff) * a2 + ((p3 >> 8) & 0xff) * a3) / alphaSum;
+                int blue = ((p0 & 0xff) * a0 + (p1 & 0xff) * a1 + (p2 & 0xff) * a2 + (p3 & 0xff) * a3) / alphaSum;
+                int alpha = (alphaSum + 2) / 4;
+
+                destination[y * bounds.width + x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+        }
+        CanvasRaster.writeTile(dst, index, destination, bounds.width * bounds.height);
+    }
+
+    // Pixel of the 2x2 source block at coordinates relative to its top-left corner
+    private int sample(int x, int y) {
+        int i = (x >= T ? 1 : 0) + (y >= T ? 2 : 0);
+        if (sourceLengths[i] == 1) return sourceTiles[i][0];
+        return sourceTiles[i][(y % T) * sourceWidths[i] + x % T];
+    }
+}
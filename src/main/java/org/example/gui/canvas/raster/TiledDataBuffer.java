@@ -0,0 +1,284 @@
+package org.example.gui.canvas.raster;
+
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * TiledDataBuffer is a sparse pixel store for very large canvases.
+ * The image is split into square tiles, a tile that was never painted (or was filled with one color)
+ * only stores its color. Pixel arrays are allocated the first time a tile gets a different pixel.
+ * It is used as the DataBuffer of a regular BufferedImage, so Graphics2D keeps working on it.
+ *
+ * snapshot() shares the pixel arrays with a frozen copy of the buffer instead of copying them:
+ * a shared tile is copied the first time either side writes to it (copy-on-write).
+ *
+ * Tiles can also be pending: their pixels come from a TileSource (e.g. a project file) and are only decoded
+ * the first time the tile is accessed, so opening a document costs what is shown of it.
+ */
+public class TiledDataBuffer extends DataBuffer {
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+
+    private final int[][] tiles; // null for uniform tiles
+    private final boolean[] shared; // the tile array is also used by a snapshot, copy it before writing
+    private final int[] uniformColors;
+    private final BufferedImage[] tileImages; // lazily created views over the tile arrays
+
+    private volatile TileSource source; // null once no tile is pending
+    private boolean[] pending; // the tile is still to be decoded from source
+    private int pendingCount;
+
+    // Supplies the pixels of pending tiles, called from any thread
+    public interface TileSource {
+        int[] decode(int index); // full pixel array of the tile, row-major, tile width wide
+    }
+
+    public TiledDataBuffer(int width, int height, int tileSize, int fillColor) {
+        super(TYPE_INT, Math.multiplyExact(width, height));
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+
+        int count = columns * rows;
+        this.tiles = new int[count][];
+        this.shared = new boolean[count];
+        this.uniformColors = new int[count];
+        this.tileImages = new BufferedImage[count];
+        Arrays.fill(uniformColors, fillColor);
+    }
+
+    // --- DataBuffer (per pixel access, used by Graphics2D and the raster) ---
+
+    @Override
+    public int getElem(int bank, int i) {
+        int x = i % width;
+        int y = i / width;
+        int index = (y / tileSize) * columns + x / tileSize;
+        if (source != null) load(index);
+        int[] tile = tiles[index];
+        if (tile == null) return uniformColors[index];
+        return tile[(y % tileSize) * getTileWidth(index) + x % tileSize];
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        int x = i % width;
+        int y = i / width;
+        int index = (y / tileSize) * columns + x / tileSize;
+        if (source != null) load(index);
+        int[] tile = tiles[index];
+        if (tile == null) {
+            if (uniformColors[index] == val) return; // stays uniform
+            tile = allocate(index);
+        } else if (shared[index]) {
+            tile = unshare(index);
+        }
+        tile[(y % tileSize) * getTileWidth(index) + x % tileSize] = val;
+    }
+
+    // --- TILE ACCESS ---
+
+    public boolean isUniform(int index) {
+        if (source != null) load(index);
+        return tiles[index] == null;
+    }
+
+    public int getUniformColor(int index) {
+        if (source != null) load(index);
+        return uniformColors[index];
+    }
+
+    // Pixel array of the tile (row-major, tile width wide) for reading, null if the tile is uniform
+    public int[] getTile(int index) {
+        if (source != null) load(index);
+        return tiles[index];
+    }
+
+    // Allocates the tile (or takes its own copy of a shared one) if needed and returns its pixel array
+    public int[] getWritableTile(int index) {
+        if (source != null) load(index);
+        int[] tile = tiles[index];
+        if (tile == null) return allocate(index);
+        return shared[index] ? unshare(index) : tile;
+    }
+
+    // Replace the pixels of a tile, the array is copied
+    public void setTile(int index, int[] data) {
+        if (source != null) discardPending(index);
+        int length = getTileWidth(index) * getTileHeight(index);
+        if (tiles[index] == null || shared[index]) {
+            replace(index, Arrays.copyOf(data, length));
+        } else {
+            System.arraycopy(data, 0, tiles[index], 0, length);
+        }
+    }
+
+    // Turn a tile back into a single color, releasing its pixels
+    public synchronized void fillTile(int index, int color) {
+        if (source != null) discardPending(index);
+        tiles[index] = null;
+        shared[index] = false;
+        tileImages[index] = null;
+        uniformColors[index] = color;
+    }
+
+    public void fill(int color) {
+        for (int i = 0; i < tiles.length; i++) fillTile(i, color);
+    }
+
+    // Frozen copy of the buffer sharing the pixel arrays, O(tiles). Both sides copy a shared tile before writing to it
+    public synchronized TiledDataBuffer snapshot() {
+        TiledDataBuffer copy = new TiledDataBuffer(width, height, tileSize, 0);
+        for (int i = 0; i < tiles.length; i++) {
+            copy.uniformColors[i] = uniformColors[i];
+            if (tiles[i] == null) continue;
+
+            copy.tiles[i] = tiles[i];
+            copy.shared[i] = true;
+            shared[i] = true;
+        }
+
+        // Pending tiles stay pending in both, each side decodes them on its own
+        if (source != null) {
+            copy.pending = pending.clone();
+            copy.pendingCount = pendingCount;
+            copy.source = source;
+        }
+        return copy;
+    }
+
+    // --- PENDING TILES ---
+
+    // Mark tiles as pending, their pixels are decoded from source on first access
+    public synchronized void setTileSource(TileSource source, BitSet tiles) {
+        if (pending == null) pending = new boolean[this.tiles.length];
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            if (pending[index]) continue;
+            pending[index] = true;
+            pendingCount++;
+        }
+        if (pendingCount > 0) this.source = source;
+    }
+
+    public boolean hasPendingTiles() {
+        return source != null;
+    }
+
+    // Decode a pending tile, nothing happens if it is already loaded. Decoding runs outside the lock
+    public void load(int index) {
+        TileSource source = this.source;
+        if (source == null) return;
+        synchronized (this) {
+            if (!pending[index]) return;
+        }
+
+        int[] pixels = source.decode(index);
+        synchronized (this) {
+            if (!pending[index]) return; // loaded or overwritten meanwhile
+            replace(index, pixels);
+            discardPending(index);
+        }
+    }
+
+    // True while the tile is still to be decoded, unlike the other accessors this does not decode it
+    public synchronized boolean isPending(int index) {
+        return pending != null && pending[index];
+    }
+
+    // The tile is overwritten as a whole, its pending pixels are not needed anymore
+    private synchronized void discardPending(int index) {
+        if (pending == null || !pending[index]) return;
+        pending[index] = false;
+        if (--pendingCount == 0) source = null;
+    }
+
+    // TYPE_INT_ARGB view over the pixels of a tile (allocates the tile), drawing into it edits the buffer
+    public BufferedImage getTileImage(int index) {
+        getWritableTile(index);
+        return getTileView(index);
+    }
+
+    /*
+     * Same view for reading only (e.g. painting the canvas), null if the tile is uniform. A shared tile stays shared.
+     * The view is made under the lock, so it always wraps the array the tile has now: the stroke thread may be
+     * swapping it (unshare, replace) while the EDT paints.
+     */
+    public BufferedImage getTileView(int index) {
+        if (source != null) load(index);
+        synchronized (this) {
+            int[] tile = tiles[index];
+            if (tile == null) return null;
+
+            BufferedImage image = tileImages[index];
+            if (image != null) return image;
+
+            int w = getTileWidth(index);
+            int h = getTileHeight(index);
+            DataBufferInt data = new DataBufferInt(tile, w * h);
+            WritableRaster raster = Raster.createPackedRaster(data, w, h, w,
+                    new int[] {0xff0000, 0xff00, 0xff, 0xff000000}, null);
+            image = new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+            tileImages[index] = image;
+            return image;
+        }
+    }
+
+    // --- GEOMETRY ---
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileWidth(int index) {
+        return Math.min(tileSize, width - (index % columns) * tileSize);
+    }
+
+    public int getTileHeight(int index) {
+        return Math.min(tileSize, height - (index / columns) * tileSize);
+    }
+
+    private synchronized int[] allocate(int index) {
+        int[] tile = tiles[index];
+        if (tile != null) return tile;
+
+        tile = new int[getTileWidth(index) * getTileHeight(index)];
+        Arrays.fill(tile, uniformColors[index]);
+        tiles[index] = tile;
+        return tile;
+    }
+
+    // Give the tile its own copy of a shared pixel array
+    private synchronized int[] unshare(int index) {
+        if (!shared[index]) return tiles[index];
+        replace(index, tiles[index].clone());
+        return tiles[index];
+    }
+
+    private synchronized void replace(int index, int[] tile) {
+        tiles[index] = tile;
+        shared[index] = false;
+        tileImages[index] = null; // the view wraps the old array
+    }
+}
@@ -143,7 +143,7 @@ public class SelectionView implements CanvasPainter, OverlayPainter {
             case CREATING -> currentPoint = current;
         }
 
-        canvas.repaint();
+        canvas.requestFrame();
     }
 
     @Override
@@ -176,6 +176,7 @@ public class SelectionView implements CanvasPainter, OverlayPainter {
                     clearG.setComposite(AlphaComposite.Clear);
                     clearG.fillRect(rect.x, rect.y, rect.width, rect.height);
                     clearG.dispose();
+                    canvas.markDirty(rect);
                 }
             }
         }
@@ -306,7 +307,7 @@ public class SelectionView implements CanvasPainter, OverlayPainter {
             currentSelection = null;
             isActive = false;
             rotationAngle = 0; // Reset after apply
-            canvas.repaint();
+            canvas.markDirty();
         }
     }
 
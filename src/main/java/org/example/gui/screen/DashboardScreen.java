@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -16,6 +17,8 @@ import javax.swing.border.LineBorder;
 import org.example.db.Project;
 import org.example.db.ProjectDatabase;
 import org.example.gui.ApplicationMenu;
+import org.example.gui.canvas.autosave.ProjectFile;
+import org.example.gui.canvas.raster.CanvasRaster;
 import org.example.gui.screen.component.DashboardBannerPanel;
 import org.example.gui.screen.component.WrapLayout;
 
@@ -95,8 +98,7 @@ public class DashboardScreen extends AbstractScreen {
 
         // Thumbnail on top (centered and square, not stretched)
         try {
-            ImageIcon originalIcon = new ImageIcon(project.getLatestAutosave().getAbsolutePath());
-            Image originalImage = originalIcon.getImage();
+            Image originalImage = loadThumbnail(project);
             int imgWidth = originalImage.getWidth(null);
             int imgHeight = originalImage.getHeight(null);
             double targetAspect = 16.0 / 9.0;
@@ -179,10 +181,29 @@ public class DashboardScreen extends AbstractScreen {
         // Load button logic
         loadButton.addActionListener(e -> {
             projectDatabase.updateLastOpened(project.getName(), java.time.LocalDateTime.now().toString());
+            int width;
+            int height;
+            Color background = Color.WHITE;
+            if (project.getProjectFile().exists()) {
+                try {
+                    ProjectFile.Header header = ProjectFile.readHeader(project.getProjectFile());
+                    width = header.width();
+                    height = header.height();
+                    background = new Color(header.background(), true);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(parentFrame, "Failed to open project.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            } else {
+                ImageIcon image = new ImageIcon(project.getLatestAutosave().getAbsolutePath());
+                width = image.getIconWidth();
+                height = image.getIconHeight();
+            }
+
+            // The canvas opens the project file itself
             parentFrame.getContentPane().removeAll();
-            ImageIcon image = new ImageIcon(project.getLatestAutosave().getAbsolutePath());
-            CanvasScreen canvasScreen = new CanvasScreen(parentFrame, image.getIconWidth(), image.getIconHeight(), Color.WHITE, project);
-            canvasScreen.getCanvas().loadLatestAutoSave(project);
+            CanvasScreen canvasScreen = new CanvasScreen(parentFrame, width, height, background, project);
             ScreenManager.getInstance().switchScreen(canvasScreen);
         });
 
@@ -205,6 +226,12 @@ public class DashboardScreen extends AbstractScreen {
         return card;
     }
 
+    // Thumbnail stored in the project file, older projects show their latest autosave
+    private Image loadThumbnail(Project project) throws IOException {
+        if (project.getProjectFile().exists()) return ProjectFile.readThumbnail(project.getProjectFile());
+        return new ImageIcon(project.getLatestAutosave().getAbsolutePath()).getImage();
+    }
+
     private String formatDate(String dateStr) {
         try {
             return LocalDateTime.parse(dateStr).format(DISPLAY_FORMATTER);
@@ -274,7 +301,7 @@ public class DashboardScreen extends AbstractScreen {
         settingsDialog.add(new JLabel("Canvas Width:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 2; gbc.gridwidth = 2;
-        JSpinner widthField = new JSpinner(new SpinnerNumberModel(800, 1, Integer.MAX_VALUE, 1));
+        JSpinner widthField = new JSpinner(new SpinnerNumberModel(800, 1, CanvasRaster.MAX_DIMENSION, 1));
         settingsDialog.add(widthField, gbc);
 
         // Height input
@@ -282,7 +309,7 @@ public class DashboardScreen extends AbstractScreen {
         settingsDialog.add(new JLabel("Canvas Height:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 3; gbc.gridwidth = 2;
-        JSpinner heightField = new JSpinner(new SpinnerNumberModel(600, 1, Integer.MAX_VALUE, 1));
+        JSpinner heightField = new JSpinner(new SpinnerNumberModel(600, 1, CanvasRaster.MAX_DIMENSION, 1));
         settingsDialog.add(heightField, gbc);
 
         // Create Canvas button
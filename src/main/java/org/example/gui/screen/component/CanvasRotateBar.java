@@ -2,6 +2,7 @@ package org.example.gui.screen.component;
 
 import org.example.gui.canvas.Canvas;
 import org.example.gui.canvas.CanvasViewer;
+import org.example.gui.canvas.raster.CanvasRaster;
 
 import javax.swing.*;
 import java.awt.*;
@@ -60,6 +61,9 @@ public class CanvasRotateBar extends JToolBar {
 
     // Rotate an image by the specified angle in degrees
     public BufferedImage rotateImage(BufferedImage image, double angleDegrees) {
+        // Quarter turns are exact, they are remapped tile by tile
+        if (angleDegrees == 90 || angleDegrees == -90) return CanvasRaster.rotate90(image, angleDegrees > 0);
+
         double radians = Math.toRadians(angleDegrees);
         double sin = Math.abs(Math.sin(radians));
         double cos = Math.abs(Math.cos(radians));
@@ -70,7 +74,7 @@ public class CanvasRotateBar extends JToolBar {
         int newWidth = (int) Math.floor(w * cos + h * sin);
         int newHeight = (int) Math.floor(h * cos + w * sin);
 
-        BufferedImage rotated = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage rotated = CanvasRaster.create(newWidth, newHeight, 0);
         Graphics2D g2d = rotated.createGraphics();
 
         // Center the image and apply rotation
@@ -84,22 +88,25 @@ public class CanvasRotateBar extends JToolBar {
 
     // Rotate canvas image 90 degrees to the right
     public void RotateRight(Canvas canvas, CanvasViewer viewer) {
+        if (canvas.isLoading()) return;
         BufferedImage originalImage = canvas.getCanvasImage();
-        BufferedImage rotatedImage = rotateImage(originalImage, 90);
+        BufferedImage rotatedImage = CanvasRaster.rotate90(originalImage, true);
         canvas.setCanvasImage(rotatedImage);
         viewer.updateLayerBounds();
     }
 
     // Rotate canvas image 90 degrees to the left
     public void RotateLeft(Canvas canvas, CanvasViewer viewer) {
+        if (canvas.isLoading()) return;
         BufferedImage originalImage = canvas.getCanvasImage();
-        BufferedImage rotatedImage = rotateImage(originalImage, -90);
+        BufferedImage rotatedImage = CanvasRaster.rotate90(originalImage, false);
         canvas.setCanvasImage(rotatedImage);
         viewer.updateLayerBounds();
     }
 
     // Flip canvas image horizontally
     public void FlipVertical(Canvas canvas, CanvasViewer viewer) {
+        if (canvas.isLoading()) return;
         BufferedImage originalImage = canvas.getCanvasImage();
         BufferedImage flippedImage = flipImage(originalImage, true);
         canvas.setCanvasImage(flippedImage);
@@ -108,26 +115,15 @@ public class CanvasRotateBar extends JToolBar {
 
     // Flip canvas image vertically
     public void FlipHorizontal(Canvas canvas, CanvasViewer viewer) {
+        if (canvas.isLoading()) return;
         BufferedImage originalImage = canvas.getCanvasImage();
         BufferedImage flippedImage = flipImage(originalImage, false);
         canvas.setCanvasImage(flippedImage);
         viewer.updateLayerBounds();
     }
 
-    // Helper method to flip an image horizontally or vertically
+    // Helper method to flip an image horizontally or vertically, done tile by tile (see CanvasRaster)
     public BufferedImage flipImage(BufferedImage image, boolean horizontal) {
-        int w = image.getWidth();
-        int h = image.getHeight();
-        BufferedImage flipped = new BufferedImage(w, h, image.getType());
-        Graphics2D g2d = flipped.createGraphics();
-
-        if (horizontal) {
-            g2d.drawImage(image, 0, 0, w, h, w, 0, 0, h, null); // X yönü ters
-        } else {
-            g2d.drawImage(image, 0, 0, w, h, 0, h, w, 0, null); // Y yönü ters
-        }
-
-        g2d.dispose();
-        return flipped;
+        return CanvasRaster.flip(image, horizontal);
     }
 }
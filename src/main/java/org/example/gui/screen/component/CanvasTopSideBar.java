@@ -1,6 +1,7 @@
 package org.example.gui.screen.component;
 
 import org.example.gui.canvas.Canvas;
+import org.example.gui.canvas.raster.CanvasRaster;
 
 import javax.swing.*;
 import java.awt.*;
@@ -46,8 +47,9 @@ public class CanvasTopSideBar extends JToolBar {
 
 
     private void openResizeDialog(JFrame parentFrame, Canvas canvas) {
-        JSpinner widthField = new JSpinner(new SpinnerNumberModel(canvas.getCanvasSize().getWidth(), 1, Integer.MAX_VALUE, 1));
-        JSpinner heightField = new JSpinner(new SpinnerNumberModel(canvas.getCanvasSize().getHeight(), 1, Integer.MAX_VALUE, 1));
+        if (canvas.isLoading()) return;
+        JSpinner widthField = new JSpinner(new SpinnerNumberModel(canvas.getCanvasSize().getWidth(), 1, CanvasRaster.MAX_DIMENSION, 1));
+        JSpinner heightField = new JSpinner(new SpinnerNumberModel(canvas.getCanvasSize().getHeight(), 1, CanvasRaster.MAX_DIMENSION, 1));
 
         JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
         panel.add(new JLabel("Width:"));
@@ -65,14 +67,8 @@ public class CanvasTopSideBar extends JToolBar {
                 int newWidth = ((Number) widthField.getValue()).intValue();
                 int newHeight = ((Number) heightField.getValue()).intValue();
 
-                BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g2d = resized.createGraphics();
-
-                g2d.setColor(canvas.getBackground()); // kalan kısımlar transparant background oluyordu
-                g2d.fillRect(0, 0, newWidth, newHeight);
-
-                g2d.drawImage(canvas.getCanvasImage(), 0, 0, null);
-                g2d.dispose();
+                // kalan kısımlar transparant background oluyordu
+                BufferedImage resized = CanvasRaster.resize(canvas.getCanvasImage(), newWidth, newHeight, canvas.getBackground().getRGB());
 
                 canvas.setCanvasImage(resized);
                 canvas.revalidate();